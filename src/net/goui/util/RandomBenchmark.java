@@ -0,0 +1,104 @@
+package net.goui.util;
+
+import java.util.Random;
+
+/**
+ * Checks that the {@link UnsynchronizedRandom} draws the same numbers as the
+ * {@link NESRandom} and {@link java.util.Random}, that it restarts from a
+ * saved state, and measures the cost of a draw of each. The check fails with
+ * an exception if the sequences differ.
+ * <br>
+ * Usage: RandomBenchmark [drawNum], 10000000 draws by default.
+ */
+public class RandomBenchmark
+{
+  /** The sum of the draws, printed so the loops are not optimized away. */
+  static double sum = 0.0;
+
+  /**
+   * @return returns the bits of the next number of a kind
+   */
+  static long draw(Random random, int kind, int bound)
+  {
+    switch( kind )
+    {
+      case 0: return random.nextInt();
+      case 1: return random.nextInt(bound);
+      case 2: return random.nextLong();
+      case 3: return Double.doubleToLongBits(random.nextDouble());
+      case 4: return Double.doubleToLongBits(random.nextGaussian());
+      default: return random.nextBoolean() ? 1 : 0;
+    }
+  }
+
+  /**
+   * Draws the same mixture of numbers from the generators and compares them,
+   * the seeds must agree at the end as well.
+   */
+  static void checkSequence()
+  {
+    for( long seed = -3; seed < 1000; seed += 97 )
+    {
+      Random random = new Random(seed);
+      NESRandom nes = new NESRandom(seed);
+      UnsynchronizedRandom fast = new UnsynchronizedRandom(seed);
+      for( int i=0; i<100000; ++i )
+      {
+        long expected = draw(random, i % 6, i + 1);
+        if( draw(nes, i % 6, i + 1) != expected || draw(fast, i % 6, i + 1) != expected )
+          throw new IllegalStateException("The sequences differ at draw " + i + " of seed " + seed);
+      }
+      if( nes.getSeed() != fast.getSeed() || fast.clone().nextLong() != random.nextLong() )
+        throw new IllegalStateException("The states differ for seed " + seed);
+      // the cached second normal number is restored as well
+      fast.nextGaussian();
+      UnsynchronizedRandom saved = fast.clone();
+      double gaussian = fast.nextGaussian();
+      fast.nextGaussian();
+      fast.setState(saved);
+      if( fast.nextGaussian() != gaussian )
+        throw new IllegalStateException("The generator does not restart from its state for seed " + seed);
+    }
+  }
+
+  /**
+   * @return returns the nanoseconds of a uniform draw
+   */
+  static double measureDouble(Random random, int drawNum)
+  {
+    long time0 = System.nanoTime();
+    for( int i=0; i<drawNum; ++i )
+      sum += random.nextDouble();
+    return (double)(System.nanoTime() - time0) / drawNum;
+  }
+
+  /**
+   * @return returns the nanoseconds of a normal draw
+   */
+  static double measureGaussian(Random random, int drawNum)
+  {
+    long time0 = System.nanoTime();
+    for( int i=0; i<drawNum; ++i )
+      sum += random.nextGaussian();
+    return (double)(System.nanoTime() - time0) / drawNum;
+  }
+
+  public static void main(String[] args)
+  {
+    int drawNum = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+    checkSequence();
+    System.out.println("the sequences agree");
+
+    Random[] generators = { new Random(1), new NESRandom(1), new UnsynchronizedRandom(1) };
+    for( int round=0; round<3; ++round )
+    {
+      for( int k=0; k<generators.length; ++k )
+      {
+        String name = generators[k].getClass().getSimpleName();
+        System.out.println(name + " nextDouble " + measureDouble(generators[k], drawNum) + " ns");
+        System.out.println(name + " nextGaussian " + measureGaussian(generators[k], drawNum) + " ns");
+      }
+    }
+    System.out.println("(" + (float)sum + ")");
+  }
+}
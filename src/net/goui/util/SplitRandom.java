@@ -0,0 +1,124 @@
+package net.goui.util;
+
+/**
+ * A splittable stream of random numbers, the SplitMix64 generator of Steele,
+ * Lea and Flood. The state is a counter, every number is a hash of it, so a
+ * stream started from a hash of a parent seed and a key, see
+ * {@link #seed(long, long)}, is independent of its parent and of the streams
+ * of other keys. Giving every node and every link a stream of its own keyed
+ * by its identity makes the numbers they draw independent of the order the
+ * events of different nodes are executed in, and so of the number of
+ * threads. <br>
+ * Like the {@link Ziggurat}, which uses the same generator, an instance is
+ * not synchronized and must be used by one thread at a time.
+ */
+public class SplitRandom
+{
+  /** The increment of the counter, the golden ratio. */
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  /** The seed the stream was started with, the parent of its splits. */
+  private final long seed;
+
+  /** The counter. */
+  private long state;
+
+  /**
+   * Creates a stream.
+   *
+   * @param seed the seed, every value is fine
+   */
+  public SplitRandom(long seed)
+  {
+    this.seed = seed;
+    this.state = seed;
+  }
+
+  /**
+   * The finalizer of SplitMix64, a bijective hash of 64 bits.
+   */
+  public static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Derives the seed of an independent stream from the seed of a parent
+   * stream and a key, like the id of a node or the number of a transmission.
+   * The result only depends on the two values, it is the same whenever and
+   * by whichever thread it is computed.
+   *
+   * @param parent the seed of the parent stream
+   * @param key the key of the new stream
+   * @return returns the seed of the new stream
+   */
+  public static long seed(long parent, long key)
+  {
+    return mix(mix(parent) + GOLDEN_GAMMA * (key + 1));
+  }
+
+  /**
+   * @param key the key of the new stream
+   * @return returns an independent stream, see {@link #seed(long, long)},
+   * which does not depend on the numbers drawn from this one
+   */
+  public SplitRandom split(long key)
+  {
+    return new SplitRandom(seed(seed, key));
+  }
+
+  /**
+   * @return returns the seed this stream was started with
+   */
+  public long getSeed()
+  {
+    return seed;
+  }
+
+  /**
+   * @return returns the state of the stream, see {@link #setState}
+   */
+  public long getState()
+  {
+    return state;
+  }
+
+  /**
+   * Continues the stream from a state returned by {@link #getState}, used
+   * to roll back a simulation.
+   */
+  public void setState(long state)
+  {
+    this.state = state;
+  }
+
+  /**
+   * @return returns the next 64 random bits
+   */
+  public long nextLong()
+  {
+    return mix(state += GOLDEN_GAMMA);
+  }
+
+  /**
+   * @return returns a uniform random number in [0,1)
+   */
+  public double nextDouble()
+  {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * @param bound the upper bound, must be positive
+   * @return returns a uniform random integer in [0,bound)
+   */
+  public int nextInt(int bound)
+  {
+    if( bound <= 0 )
+      throw new IllegalArgumentException("The bound must be positive");
+    // the upper 32 bits scaled by the bound, the bias is below 2^-32
+    return (int)(((nextLong() >>> 32) * bound) >>> 32);
+  }
+}
@@ -0,0 +1,114 @@
+package net.goui.util;
+
+/**
+ * A {@link NESRandom} without synchronization, for generators used by one
+ * thread only, like the {@link net.tinyos.prowler.Simulator#random}. It
+ * draws exactly the same 48 bit linear congruential sequence as
+ * {@link java.util.Random} and {@link NESRandom}, so replacing one by the
+ * other does not change the results, but no draw enters a monitor or
+ * allocates. {@link #nextDouble} and {@link #nextGaussian} step the
+ * generator inline, the latter with the same polar method and the same
+ * cached second value as {@link java.util.Random#nextGaussian}.
+ */
+public class UnsynchronizedRandom extends NESRandom
+{
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+
+  private static final long ADDEND = 0xBL;
+
+  private static final long MASK = (1L << 48) - 1;
+
+  private static final long serialVersionUID = 6128532719374318841L;
+
+  /**
+   * The state of the generator. It has no initializer, as the constructor
+   * of {@link java.util.Random} sets it by {@link #setSeed} already.
+   */
+  private long state;
+
+  /** True if {@link #nextNextGaussian} is the next value of {@link #nextGaussian}. */
+  private boolean haveNextNextGaussian;
+
+  private double nextNextGaussian;
+
+  /**
+   * Creates a generator.
+   *
+   * @param seed the initial seed
+   */
+  public UnsynchronizedRandom(long seed)
+  {
+    super(seed);
+  }
+
+  public void setSeed(long seed)
+  {
+    state = (seed ^ MULTIPLIER) & MASK;
+    haveNextNextGaussian = false;
+  }
+
+  public long getSeed()
+  {
+    return (state ^ MULTIPLIER) & MASK;
+  }
+
+  protected int next(int bits)
+  {
+    state = (state * MULTIPLIER + ADDEND) & MASK;
+    return (int)(state >>> (48 - bits));
+  }
+
+  public double nextDouble()
+  {
+    long s = (state * MULTIPLIER + ADDEND) & MASK;
+    long high = s >>> (48 - 26);
+    s = (s * MULTIPLIER + ADDEND) & MASK;
+    state = s;
+    return ((high << 27) + (s >>> (48 - 27))) * 0x1.0p-53;
+  }
+
+  public double nextGaussian()
+  {
+    if( haveNextNextGaussian )
+    {
+      haveNextNextGaussian = false;
+      return nextNextGaussian;
+    }
+    double v1, v2, s;
+    do
+    {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    }
+    while( s >= 1 || s == 0 );
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    nextNextGaussian = v2 * multiplier;
+    haveNextNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  /**
+   * Continues the sequence of another generator, with its cached second
+   * value of {@link #nextGaussian}. With {@link #clone} it saves and
+   * restores the whole state, used to roll back a simulation, unlike
+   * {@link #getSeed} and {@link #setSeed} which drop the cached value.
+   *
+   * @param other the generator, typically a clone saved earlier
+   */
+  public void setState(UnsynchronizedRandom other)
+  {
+    state = other.state;
+    haveNextNextGaussian = other.haveNextNextGaussian;
+    nextNextGaussian = other.nextNextGaussian;
+  }
+
+  public UnsynchronizedRandom clone()
+  {
+    UnsynchronizedRandom copy = new UnsynchronizedRandom(0);
+    copy.state = state;
+    copy.haveNextNextGaussian = haveNextNextGaussian;
+    copy.nextNextGaussian = nextNextGaussian;
+    return copy;
+  }
+}
@@ -0,0 +1,218 @@
+package net.goui.util;
+
+/**
+ * A fast generator of normal and exponential random numbers by the ziggurat
+ * method of Marsaglia and Tsang, with the improvement of Doornik which takes
+ * the layer and the value from independent bits. The density is covered by
+ * layers of equal area, most samples fall inside a layer and cost one random
+ * long, a multiplication and a comparison; only the edges and the tail need
+ * exponentials or logarithms. <br>
+ * The random bits come from the SplitMix64 generator kept in this object,
+ * which is not synchronized, so an instance must be used by one thread only,
+ * like the radio neighborhood of a node owning it. The same seed always
+ * gives the same numbers. The distributions are checked by the
+ * {@link ZigguratBenchmark}.
+ */
+public class Ziggurat
+{
+  /** The number of layers of the normal density. */
+  private static final int NORMAL_LAYERS = 128;
+
+  /** The start of the tail of the normal density. */
+  private static final double NORMAL_R = 3.442619855899;
+
+  /** The area of a layer of the normal density. */
+  private static final double NORMAL_V = 9.91256303526217e-3;
+
+  /** The number of layers of the exponential density. */
+  private static final int EXPONENTIAL_LAYERS = 256;
+
+  /** The start of the tail of the exponential density. */
+  private static final double EXPONENTIAL_R = 7.69711747013104972;
+
+  /** The area of a layer of the exponential density. */
+  private static final double EXPONENTIAL_V = 3.949659822581572e-3;
+
+  /** The right edges of the layers of the normal density. */
+  private static final double[] normalX = new double[NORMAL_LAYERS + 1];
+
+  /** The ratio of the edge of the layer above and the edge of a layer. */
+  private static final double[] normalRatio = new double[NORMAL_LAYERS];
+
+  private static final double[] exponentialX = new double[EXPONENTIAL_LAYERS + 1];
+
+  private static final double[] exponentialRatio = new double[EXPONENTIAL_LAYERS];
+
+  static
+  {
+    double f = Math.exp(-0.5 * NORMAL_R * NORMAL_R);
+    normalX[0] = NORMAL_V / f;
+    normalX[1] = NORMAL_R;
+    for( int i=2; i<NORMAL_LAYERS; ++i )
+    {
+      normalX[i] = Math.sqrt(-2.0 * Math.log(NORMAL_V / normalX[i - 1] + f));
+      f = Math.exp(-0.5 * normalX[i] * normalX[i]);
+    }
+    normalX[NORMAL_LAYERS] = 0.0;
+    for( int i=0; i<NORMAL_LAYERS; ++i )
+      normalRatio[i] = normalX[i + 1] / normalX[i];
+
+    f = Math.exp(-EXPONENTIAL_R);
+    exponentialX[0] = EXPONENTIAL_V / f;
+    exponentialX[1] = EXPONENTIAL_R;
+    for( int i=2; i<EXPONENTIAL_LAYERS; ++i )
+    {
+      exponentialX[i] = -Math.log(EXPONENTIAL_V / exponentialX[i - 1] + f);
+      f = Math.exp(-exponentialX[i]);
+    }
+    exponentialX[EXPONENTIAL_LAYERS] = 0.0;
+    for( int i=0; i<EXPONENTIAL_LAYERS; ++i )
+      exponentialRatio[i] = exponentialX[i + 1] / exponentialX[i];
+  }
+
+  /** The state of the SplitMix64 generator. */
+  private long state;
+
+  /**
+   * Creates a generator.
+   *
+   * @param seed the seed, every value is fine
+   */
+  public Ziggurat(long seed)
+  {
+    state = seed;
+  }
+
+  /**
+   * @return returns the state of the generator, see {@link #setState}
+   */
+  public long getState()
+  {
+    return state;
+  }
+
+  /**
+   * Continues the sequence from a state returned by {@link #getState}, used
+   * to roll back a simulation.
+   */
+  public void setState(long state)
+  {
+    this.state = state;
+  }
+
+  /**
+   * @return returns the next 64 random bits
+   */
+  public long nextLong()
+  {
+    long z = (state += 0x9E3779B97F4A7C15L);
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * @return returns a uniform random number in [0,1)
+   */
+  public double nextDouble()
+  {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * @return returns a uniform random number in (0,1], safe for a logarithm
+   */
+  private double nextPositiveDouble()
+  {
+    return ((nextLong() >>> 11) + 1) * 0x1.0p-53;
+  }
+
+  /**
+   * @return returns a standard normal random number
+   */
+  public double nextGaussian()
+  {
+    while( true )
+    {
+      long bits = nextLong();
+      int i = (int)bits & (NORMAL_LAYERS - 1);
+      // uniform in (-1,1) from the upper 53 bits
+      double u = (bits >> 10) * 0x1.0p-53;
+      if( Math.abs(u) < normalRatio[i] )
+        return u * normalX[i];
+      if( i == 0 )
+        return normalTail(u < 0.0);
+      double x = u * normalX[i];
+      double f0 = Math.exp(-0.5 * (normalX[i] * normalX[i] - x * x));
+      double f1 = Math.exp(-0.5 * (normalX[i + 1] * normalX[i + 1] - x * x));
+      if( f1 + nextDouble() * (f0 - f1) < 1.0 )
+        return x;
+    }
+  }
+
+  /**
+   * Samples the normal density beyond {@link #NORMAL_R}.
+   */
+  private double normalTail(boolean negative)
+  {
+    double x, y;
+    do
+    {
+      x = -Math.log(nextPositiveDouble()) / NORMAL_R;
+      y = -Math.log(nextPositiveDouble());
+    }
+    while( y + y < x * x );
+    return negative ? -NORMAL_R - x : NORMAL_R + x;
+  }
+
+  /**
+   * @return returns an exponential random number of mean 1
+   */
+  public double nextExponential()
+  {
+    double shift = 0.0;
+    while( true )
+    {
+      long bits = nextLong();
+      int i = (int)bits & (EXPONENTIAL_LAYERS - 1);
+      double u = (bits >>> 11) * 0x1.0p-53;
+      if( u < exponentialRatio[i] )
+        return shift + u * exponentialX[i];
+      if( i == 0 )
+      {
+        // the tail is an exponential again, shifted by R
+        shift += EXPONENTIAL_R;
+        continue;
+      }
+      double x = u * exponentialX[i];
+      double f0 = Math.exp(x - exponentialX[i]);
+      double f1 = Math.exp(x - exponentialX[i + 1]);
+      if( f1 + nextDouble() * (f0 - f1) < 1.0 )
+        return shift + x;
+    }
+  }
+
+  /**
+   * Fills an array with standard normal random numbers.
+   *
+   * @param samples the array
+   * @param count the number of numbers, from the beginning of the array
+   */
+  public void nextGaussians(double[] samples, int count)
+  {
+    for( int k=0; k<count; ++k )
+      samples[k] = nextGaussian();
+  }
+
+  /**
+   * Fills an array with exponential random numbers of mean 1.
+   *
+   * @param samples the array
+   * @param count the number of numbers, from the beginning of the array
+   */
+  public void nextExponentials(double[] samples, int count)
+  {
+    for( int k=0; k<count; ++k )
+      samples[k] = nextExponential();
+  }
+}
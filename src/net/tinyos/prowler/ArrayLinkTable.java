@@ -0,0 +1,76 @@
+package net.tinyos.prowler;
+
+import java.util.List;
+
+/**
+ * A {@link LinkTable} on the heap. A link takes an int and two doubles, the
+ * offsets an int per node.
+ */
+public class ArrayLinkTable extends LinkTable {
+
+	/** The first link of every node, and the number of links at the end. */
+	int[] offsets;
+
+	/** The index of the receiver of every link. */
+	int[] targets;
+
+	/** The static fading of every link. */
+	double[] staticFadings;
+
+	/** The signal strength of the last transmission over every link. */
+	double[] dynamicStrengths;
+
+	/**
+	 * Joins the rows of consecutive node ranges.
+	 *
+	 * @param nodes the nodes
+	 * @param parts the rows of every node in order
+	 */
+	ArrayLinkTable(Node[] nodes, List<Builder> parts){
+		long linkNum = getLinkNum(parts);
+		if( linkNum > Integer.MAX_VALUE )
+			throw new IllegalArgumentException("Too many links for the heap, use a link file: " + linkNum);
+		this.nodes = nodes;
+		offsets = new int[nodes.length + 1];
+		targets = new int[(int)linkNum];
+		staticFadings = new double[(int)linkNum];
+		dynamicStrengths = new double[(int)linkNum];
+
+		int base = 0;
+		for( Builder part : parts ){
+			for( int i=part.from; i<part.to; ++i )
+				offsets[i + 1] = base + part.rowEnds[i - part.from];
+			System.arraycopy(part.targets, 0, targets, base, part.size);
+			System.arraycopy(part.staticFadings, 0, staticFadings, base, part.size);
+			base += part.size;
+		}
+	}
+
+	public long getLinkNum(){
+		return targets.length;
+	}
+
+	public long getFirstLink(int index){
+		return offsets[index];
+	}
+
+	public long getEndLink(int index){
+		return offsets[index + 1];
+	}
+
+	public int getTarget(long link){
+		return targets[(int)link];
+	}
+
+	public double getStaticFading(long link){
+		return staticFadings[(int)link];
+	}
+
+	public double getDynamicStrength(long link){
+		return dynamicStrengths[(int)link];
+	}
+
+	public void setDynamicStrength(long link, double strength){
+		dynamicStrengths[(int)link] = strength;
+	}
+}
@@ -0,0 +1,104 @@
+package net.tinyos.prowler;
+
+import java.util.Random;
+
+/**
+ * Checks the accuracy of the {@link AttenuationTable} against
+ * {@link Math#pow} and measures the speedup, first of the power alone, then
+ * of the neighborhood search of the {@link GaussianRadioModel} with and
+ * without {@link RadioModel#fastAttenuation}. The accuracy check
+ * fails with an exception if an error exceeds the bound of the table. <br>
+ * Usage: AttenuationBenchmark [nodeNum], 100000 motes by default.
+ */
+public class AttenuationBenchmark {
+
+	/** The exponents checked, the usual falling factors halved. */
+	static final double[] EXPONENTS = { 0.5, 0.75, 1.0, 1.1, 1.25, 1.5, 2.0, 3.0 };
+
+	/**
+	 * Compares the table with the exact power for random squared distances
+	 * from 10^-6 to 10^12 square meters, and for the end points of the
+	 * interpolation segments.
+	 */
+	static void checkAccuracy(){
+		Random random = new Random(1);
+		System.out.println("exponent\tmax relative error\tbound");
+		for( int k=0; k<EXPONENTS.length; ++k ){
+			AttenuationTable table = new AttenuationTable(EXPONENTS[k]);
+			double maxError = 0.0;
+			for( int i=0; i<1000000; ++i ){
+				double x = Math.pow(10.0, -6.0 + 18.0 * random.nextDouble());
+				if( i % 2 == 0 )
+					x = Math.scalb(1.0 + (i / 2 % 4097) / 4096.0, (int)Math.floor(Math.log(x) / Math.log(2.0)));
+				double exact = Math.pow(x, EXPONENTS[k]);
+				maxError = Math.max(maxError, Math.abs(table.pow(x) - exact) / exact);
+			}
+			System.out.println(EXPONENTS[k] + "\t" + maxError + "\t" + table.getMaxRelativeError());
+			if( maxError > table.getMaxRelativeError() )
+				throw new IllegalStateException("The error bound is exceeded for the exponent " + EXPONENTS[k]);
+			if( table.pow(0.0) != Math.pow(0.0, EXPONENTS[k]) || table.pow(1.0) != 1.0 )
+				throw new IllegalStateException("The special cases are wrong for the exponent " + EXPONENTS[k]);
+		}
+	}
+
+	/**
+	 * Measures the throughput of the power alone.
+	 */
+	static void measurePower(){
+		AttenuationTable table = new AttenuationTable(1.1);
+		double[] xs = new double[1 << 16];
+		Random random = new Random(2);
+		for( int i=0; i<xs.length; ++i )
+			xs[i] = 90000.0 * random.nextDouble();
+
+		for( int round=0; round<3; ++round ){
+			double sum = 0.0;
+			long time0 = System.nanoTime();
+			for( int r=0; r<100; ++r )
+				for( int i=0; i<xs.length; ++i )
+					sum += Math.pow(xs[i], 1.1);
+			long time1 = System.nanoTime();
+			for( int r=0; r<100; ++r )
+				for( int i=0; i<xs.length; ++i )
+					sum -= table.pow(xs[i]);
+			long time2 = System.nanoTime();
+			double count = 100.0 * xs.length;
+			System.out.println("Math.pow " + (time1 - time0) / count + " ns, table " + (time2 - time1) / count
+				+ " ns, speedup " + (double)(time1 - time0) / (time2 - time1) + " (" + (float)sum + ")");
+		}
+	}
+
+	/**
+	 * Measures the neighborhood search of a field.
+	 *
+	 * @return returns the number of links found
+	 */
+	static long measureNeighborhoods(int nodeNum, boolean fastAttenuation) throws Exception{
+		Simulator sim = new Simulator(1234);
+		GaussianRadioModel radioModel = new GaussianRadioModel(sim);
+		radioModel.fastAttenuation = fastAttenuation;
+		double areaWidth = 300 * Math.sqrt(nodeNum / 1000.0);
+		sim.createNodes(TestBroadcastNode.class, radioModel, 1, nodeNum, areaWidth, 5);
+
+		long time0 = System.currentTimeMillis();
+		radioModel.updateNeighborhoods();
+		long time = System.currentTimeMillis() - time0;
+
+		long links = 0;
+		for( Node node = sim.getFirstNode(); node != null; node = node.nextNode )
+			links += radioModel.getNeighbors(node).length;
+		System.out.println(nodeNum + "\t" + (fastAttenuation ? "table" : "Math.pow") + "\t" + time + "\t" + links);
+		return links;
+	}
+
+	public static void main(String[] args) throws Exception{
+		int nodeNum = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		checkAccuracy();
+		measurePower();
+		System.out.println("motes\tattenuation\tmillisecs\tlinks");
+		for( int round=0; round<2; ++round ){
+			measureNeighborhoods(nodeNum, false);
+			measureNeighborhoods(nodeNum, true);
+		}
+	}
+}
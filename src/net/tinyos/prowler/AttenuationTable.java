@@ -0,0 +1,94 @@
+package net.tinyos.prowler;
+
+/**
+ * Approximates x^a for a fixed exponent a, the attenuation
+ * <code>Math.pow(distanceSquare, fallingFactorHalf)</code> of the radio
+ * models, by table lookup. A positive number is split into its binary
+ * exponent e and mantissa m in [1,2): the table holds 2^(a*e) for every e,
+ * and m^a at 2^12 evenly spaced points, between which it is interpolated
+ * linearly. So the relative error is bounded for every distance, see
+ * {@link #getMaxRelativeError}, it is about 10^-9 for the usual exponents.
+ * Zero, subnormal, negative, infinite and NaN arguments are passed to
+ * {@link Math#pow}. <br>
+ * The tables are not changed after the construction, so an instance can be
+ * used by several threads.
+ */
+public class AttenuationTable {
+
+	/** The number of bits of the mantissa selecting an interpolation segment. */
+	private static final int SEGMENT_BITS = 12;
+
+	private static final int FRACTION_BITS = 52 - SEGMENT_BITS;
+
+	private static final long FRACTION_MASK = (1L << FRACTION_BITS) - 1;
+
+	private static final double FRACTION_SCALE = 1.0 / (1L << FRACTION_BITS);
+
+	/** The exponent. */
+	private final double exponent;
+
+	/** m^a at the ends of the segments of [1,2]. */
+	private final double[] mantissaPowers;
+
+	/** 2^(a*e) for the biased binary exponent e from 1 to 2046. */
+	private final double[] exponentPowers;
+
+	/** The bound of the relative error. */
+	private final double maxRelativeError;
+
+	/**
+	 * Computes the tables.
+	 *
+	 * @param exponent the exponent a
+	 */
+	public AttenuationTable(double exponent){
+		this.exponent = exponent;
+		int segments = 1 << SEGMENT_BITS;
+		mantissaPowers = new double[segments + 1];
+		for( int k=0; k<=segments; ++k )
+			mantissaPowers[k] = Math.pow(1.0 + (double)k / segments, exponent);
+		exponentPowers = new double[2046];
+		for( int e=1; e<=2046; ++e )
+			exponentPowers[e - 1] = Math.pow(2.0, exponent * (e - 1023));
+
+		// the interpolation error of m^a is at most h^2/8 * max|a(a-1)m^(a-2)|,
+		// relative to the smallest m^a, plus a few rounding errors, and the 
+		// rounding of a*e in the power of two
+		double h = 1.0 / segments;
+		double secondDerivative = Math.abs(exponent * (exponent - 1.0)) * Math.max(1.0, Math.pow(2.0, exponent - 2.0));
+		maxRelativeError = h * h / 8.0 * secondDerivative / Math.min(1.0, Math.pow(2.0, exponent)) 
+			+ 4.0 * Math.ulp(1.0) + Math.ulp(Math.abs(exponent) * 1023.0) * Math.log(2.0);
+	}
+
+	/**
+	 * @return returns the exponent
+	 */
+	public double getExponent(){
+		return exponent;
+	}
+
+	/**
+	 * @return returns the bound of |pow(x) - x^a| / x^a
+	 */
+	public double getMaxRelativeError(){
+		return maxRelativeError;
+	}
+
+	/**
+	 * Approximates x^a.
+	 *
+	 * @param x the base
+	 * @return the power
+	 */
+	public double pow(double x){
+		long bits = Double.doubleToRawLongBits(x);
+		// the sign bit is included, so negative numbers are out of range too
+		int biasedExponent = (int)(bits >>> 52);
+		if( biasedExponent == 0 || biasedExponent >= 2047 )
+			return Math.pow(x, exponent);
+		int segment = (int)((bits >>> FRACTION_BITS) & ((1 << SEGMENT_BITS) - 1));
+		double t = (bits & FRACTION_MASK) * FRACTION_SCALE;
+		double low = mantissaPowers[segment];
+		return (low + (mantissaPowers[segment + 1] - low) * t) * exponentPowers[biasedExponent - 1];
+	}
+}
@@ -0,0 +1,294 @@
+package net.tinyos.prowler;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A calendar queue (R. Brown, 1988) implementation of the {@link EventQueue}.
+ * Events are hashed by their time into buckets, the "days" of a "year", and
+ * the queue walks the days one after the other when looking for the next
+ * event. When the width of a day matches the typical distance of the
+ * upcoming events, which holds when most events are scheduled shortly
+ * after the current time (MAC waiting, backoff and transmission times),
+ * both adding and removing an event take amortized O(1) time. The number of
+ * days follows the number of queued events and the width of a day is
+ * re-estimated from the earliest events whenever the calendar is resized.
+ * <br>
+ * Events comparing equal always fall into the same day and are kept in the
+ * order they were added, so this queue executes events in exactly the same
+ * order as the {@link SimpleQeue} and the {@link HeapQueue}.
+ * <br>
+ * The days are linked through the events themselves, see 
+ * {@link Event#queueNext}, so adding a reused event allocates nothing and an
+ * event can be queued only once at a time.
+ */
+public class CalendarQueue implements EventQueue
+{
+	/** The smallest number of days the calendar is shrunk to. */
+	private static final int MIN_BUCKETS = 16;
+
+	/** The number of events used to estimate the width of a day. */
+	private static final int WIDTH_SAMPLES = 25;
+
+	/** The days of the year, each one is a sorted single linked list. */
+	private Event[] buckets;
+
+	/** The number of buckets minus one, the number of buckets is a power of two. */
+	private int mask;
+
+	/** The width of one day in 1/{@link Simulator#ONE_SECOND} second. */
+	private long width = Simulator.ONE_SECOND / 1000;
+
+	int size_ = 0;
+
+	/** The bucket of the current day. */
+	private int lastBucket = 0;
+
+	/** The end of the current day, every queued event is later than its start. */
+	private long bucketTop;
+
+	public CalendarQueue()
+	{
+		init(MIN_BUCKETS, 0);
+	}
+
+	private void init(int bucketNum, long startTime)
+	{
+		buckets = new Event[bucketNum];
+		mask = bucketNum - 1;
+		setCurrentDay(startTime);
+	}
+
+	private void setCurrentDay(long time)
+	{
+		lastBucket = bucketOf(time);
+		bucketTop = (time / width + 1) * width;
+	}
+
+	private int bucketOf(long time)
+	{
+		return (int)((time / width) & mask);
+	}
+
+	public int size()
+	{
+		return size_;
+	}
+
+	public void add(Event new_event)
+	{
+		if(new_event.queueIndex >= 0)
+			throw new IllegalStateException("The event is already queued: " + new_event);
+		long time = new_event.time;
+		int i = bucketOf(time);
+
+		Event previous = null;
+		Event event = buckets[i];
+		while(event != null && Event.compare(event, new_event) <= 0)
+		{
+			previous = event;
+			event = event.queueNext;
+		}
+		new_event.queueNext = event;
+		new_event.queueIndex = i;
+		if(previous == null)
+			buckets[i] = new_event;
+		else
+			previous.queueNext = new_event;
+		size_++;
+
+		if(time < bucketTop - width)
+			setCurrentDay(time);
+		if(size_ > 2 * buckets.length)
+			resize(2 * buckets.length);
+	}
+
+	/**
+	 * Moves the current day to the day of the first event.
+	 *
+	 * @return the bucket holding the first event
+	 */
+	private int findFirst()
+	{
+		int i = lastBucket;
+		long top = bucketTop;
+		for(int n=0;n<buckets.length;n++)
+		{
+			Event head = buckets[i];
+			if(head != null && head.time < top)
+			{
+				lastBucket = i;
+				bucketTop = top;
+				return i;
+			}
+			i = (i + 1) & mask;
+			top += width;
+		}
+
+		// the next event is more than a year away, look it up directly
+		int best = -1;
+		for(i=0;i<buckets.length;i++)
+		{
+			if(buckets[i] != null && (best < 0 || Event.compare(buckets[i], buckets[best]) < 0))
+				best = i;
+		}
+		setCurrentDay(buckets[best].time);
+		return best;
+	}
+
+	public Event first()
+	{
+		if(size_==0)
+			return null;
+		return buckets[findFirst()];
+	}
+
+	public Event getAndRemoveFirst()
+	{
+		if(size_==0)
+			return null;
+		int i = findFirst();
+		Event head = buckets[i];
+		buckets[i] = head.queueNext;
+		head.queueNext = null;
+		head.queueIndex = -1;
+		size_--;
+		if(size_ < buckets.length / 2 && buckets.length > MIN_BUCKETS)
+			resize(buckets.length / 2);
+		return head;
+	}
+
+	/**
+	 * Unlinks the event from its day, the time needed is proportional to the
+	 * number of events of the day.
+	 */
+	public boolean cancel(Event event)
+	{
+		int i = event.queueIndex;
+		if(i < 0 || i >= buckets.length)
+			return false;
+		Event previous = null;
+		Event entry = buckets[i];
+		while(entry != null && entry != event)
+		{
+			previous = entry;
+			entry = entry.queueNext;
+		}
+		if(entry == null)
+			return false;
+		if(previous == null)
+			buckets[i] = event.queueNext;
+		else
+			previous.queueNext = event.queueNext;
+		event.queueNext = null;
+		event.queueIndex = -1;
+		size_--;
+		if(size_ < buckets.length / 2 && buckets.length > MIN_BUCKETS)
+			resize(buckets.length / 2);
+		return true;
+	}
+
+	public void clear()
+	{
+		for(int i=0;i<buckets.length;i++)
+		{
+			Event event = buckets[i];
+			while(event != null)
+			{
+				Event next = event.queueNext;
+				event.queueNext = null;
+				event.queueIndex = -1;
+				event = next;
+			}
+			buckets[i] = null;
+		}
+		size_ = 0;
+		setCurrentDay(0);
+	}
+
+	/**
+	 * Rebuilds the calendar with the given number of days, the width of a day
+	 * is recalculated from the earliest events.
+	 */
+	private void resize(int bucketNum)
+	{
+		Event[] events = new Event[size_];
+		int n = 0;
+		for(int i=0;i<buckets.length;i++)
+		{
+			for(Event event=buckets[i];event!=null;event=event.queueNext)
+				events[n++] = event;
+		}
+		// a stable sort, equal events remain in the order they were added
+		Arrays.sort(events, new Comparator<Event>() {
+			public int compare(Event e1, Event e2) {
+				return Event.compare(e1, e2);
+			}
+		});
+
+		width = estimateWidth(events);
+		init(bucketNum, n > 0 ? events[0].time : 0);
+		Event[] tails = new Event[bucketNum];
+		for(int k=0;k<n;k++)
+		{
+			Event event = events[k];
+			int i = bucketOf(event.time);
+			event.queueNext = null;
+			event.queueIndex = i;
+			if(tails[i] == null)
+				buckets[i] = event;
+			else
+				tails[i].queueNext = event;
+			tails[i] = event;
+		}
+	}
+
+	/**
+	 * Estimates the width of a day as three times the average distance of the
+	 * earliest events, leaving out the distances which are much larger than
+	 * the average.
+	 *
+	 * @param events the queued events in increasing order
+	 * @return the new width, or the current one if there are not enough events
+	 */
+	private long estimateWidth(Event[] events)
+	{
+		int n = Math.min(events.length, WIDTH_SAMPLES);
+		long sum = 0;
+		int count = 0;
+		for(int k=1;k<n;k++)
+		{
+			long gap = events[k].time - events[k-1].time;
+			if(gap > 0)
+			{
+				sum += gap;
+				count++;
+			}
+		}
+		if(count == 0)
+			return width;
+
+		double average = sum / (double)count;
+		double limitedSum = 0;
+		int limitedCount = 0;
+		for(int k=1;k<n;k++)
+		{
+			long gap = events[k].time - events[k-1].time;
+			if(gap > 0 && gap <= 2 * average)
+			{
+				limitedSum += gap;
+				limitedCount++;
+			}
+		}
+		if(limitedCount > 0)
+			average = limitedSum / limitedCount;
+		return Math.max(1, (long)Math.ceil(3 * average));
+	}
+
+	public String toString()
+	{
+		if(size_ == 0)
+			return "empty";
+		return size_ + " events in " + buckets.length + " days of " + width;
+	}
+}
@@ -37,11 +37,42 @@ public class Event implements Comparable{
 	/** the time of the event */
     protected long time;
 
-	/** a serial number that should be increased for each new event */
-    static protected long serialCounter=0;
-    
-    /** the serial number of this event */
+    /** 
+     * The serial number of this event among the events of its {@link #owner},
+     * or of its simulator if it has no owner, see {@link Simulator#addEvent}
+     */
     protected long serialNumber=0;
+
+    /**
+     * The node on whose behalf this event was scheduled, or null. The event
+     * runs on its behalf as well, so the events it schedules belong to the
+     * same node.
+     */
+    Node owner;
+
+    /**
+     * The position of the {@link #owner} in the node list, see 
+     * {@link Node#radioIndex}, or -1 if the event has no owner with a 
+     * position. Events of the same time are ordered by it first.
+     */
+    int source = -1;
+
+    /**
+     * The slot of this event in the {@link HeapQueue} or its day in the 
+     * {@link CalendarQueue}, -1 if the event is not queued. The queues keep 
+     * their bookkeeping in the events themselves, so scheduling a reused 
+     * event does not allocate any memory.
+     */
+    int queueIndex = -1;
+
+    /** the insertion number of this event, equal events are ordered by it */
+    long queueOrder;
+
+    /** the next event of the same {@link CalendarQueue} day or {@link TimingWheel} slot */
+    Event queueNext;
+
+    /** the slot of this event in a {@link TimingWheel}, -1 if it is not there */
+    int wheelSlot = -1;
     
     /** 
      * Basic constructor, sets the time property to zero
@@ -51,15 +82,31 @@ public class Event implements Comparable{
     }
 
 	/** 
-	 * Parameterized constructor.
+	 * Parameterized constructor. The event gets its place among the events of
+	 * the same time whenever it is added to a {@link Simulator}.
 	 * 
 	 * @param time the time of the event
 	 */
     public Event( long time ){
         this.time = time;
-        this.serialNumber = serialCounter++;
     }
 	
+	/**
+	 * @return returns the time of the event
+	 */
+    public long getTime(){
+        return time;
+    }
+
+	/**
+	 * @return returns true if the event is in the event queue or the timing
+	 * wheel of a simulator, see {@link Simulator#cancelEvent} and 
+	 * {@link Simulator#reschedule}
+	 */
+    public boolean isQueued(){
+        return queueIndex >= 0 || wheelSlot >= 0;
+    }
+
 	/** 
 	 * This function is called when the event occurs. If you want to have a clock
 	 * event for example, the execute function may look like this: <br>
@@ -83,14 +130,27 @@ public class Event implements Comparable{
 	 * This makes earlier events happen earlier :) Do not override this method. 
 	 */  
     public final int compareTo(Object arg0){
-        long arg_time = ((Event)arg0).time;
-        if( arg_time < time )
-            return 1;
-        else if( arg_time > time )
-            return -1;
-        else
-        	//any two events must be different in order to allow events with same time
-        	//if they are at the same time, the event is identified by its serial number
-        	return (int)(serialNumber - ((Event)arg0).serialNumber);
+        return compare(this, (Event)arg0);
+    }
+
+	/**
+	 * The ordering of {@link #compareTo} without casts, used by the event 
+	 * queues. Events are ordered by their time, events with the same time by
+	 * the position of their owner, and events of the same owner by their 
+	 * serial number, see {@link Simulator#addEvent}.
+	 * 
+	 * @return a negative number if e1 is earlier than e2, a positive number if 
+	 * it is later and zero if they are equal
+	 */
+    static int compare(Event e1, Event e2){
+        if( e1.time != e2.time )
+            return e1.time < e2.time ? -1 : 1;
+        //any two events must be different in order to allow events with same time
+        //if they are at the same time, the event is identified by its owner and serial number
+        if( e1.source != e2.source )
+            return e1.source < e2.source ? -1 : 1;
+        if( e1.serialNumber != e2.serialNumber )
+            return e1.serialNumber < e2.serialNumber ? -1 : 1;
+        return 0;
     }
 }
\ No newline at end of file
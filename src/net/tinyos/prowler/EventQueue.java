@@ -0,0 +1,50 @@
+package net.tinyos.prowler;
+
+/**
+ * The interface of the event queue implementations the {@link Simulator} can
+ * be constructed with, see {@link Simulator#Simulator(EventQueue)}. An event
+ * queue must return the events in increasing order of their time, owner and
+ * serial number, see {@link Event#compareTo}, and equal events must be 
+ * returned in the order they were added. Every implementation following these rules executes
+ * the same experiment in exactly the same way. An event can be queued only
+ * once at a time, adding a queued event again is an error.
+ */
+public interface EventQueue {
+
+	/**
+	 * @return Returns the number of items in the queue
+	 */
+	public int size();
+
+	/**
+	 * Adds an item to the queue.
+	 * 
+	 * @param event the event to be added
+	 */
+	public void add(Event event);
+
+	/**
+	 * @return Returns the first element without removing it, or null if the
+	 * queue is empty
+	 */
+	public Event first();
+
+	/**
+	 * @return Returns the first element and removes it from the queue, or null
+	 * if the queue is empty
+	 */
+	public Event getAndRemoveFirst();
+
+	/**
+	 * Removes the given event from the queue.
+	 * 
+	 * @param event the event to be removed
+	 * @return true if the event was in the queue
+	 */
+	public boolean cancel(Event event);
+
+	/**
+	 * Removes all the elements from the queue.
+	 */
+	public void clear();
+}
@@ -24,6 +24,7 @@
 
 package net.tinyos.prowler;
 
+import net.goui.util.SplitRandom;
 
 /**
  * This radio model uses the assumption that nodes are mainly static, they don't
@@ -41,14 +42,6 @@ public class GaussianRadioModel extends RadioModel {
      */
 	private Simulator sim = null;
 
-	/**
-	 * The exhibitor of the radio signal degradation, typically it is 2/2 if the
-	 * motes are well above ground, though at ground level this factor is 
-	 * closer to 3/2. For efficiency reasons, this number is the half of the
-	 * usually defined falling factor.
-	 */ 
-	public double fallingFactorHalf = 1.1;
-    
 	/**
 	 * This coefficient is used to "simulate" the static part of environmental
 	 * noise. It is used when the mote field is first set up. 
@@ -77,46 +70,92 @@ public class GaussianRadioModel extends RadioModel {
 		this.sim = sim;
 	}
 
+	/**
+	 * The seed of the static random fadings of the current neighborhoods, it
+	 * is drawn from the random generator of the simulator by 
+	 * {@link #updateNeighborhoods}.
+	 */
+	protected long topologySeed;
+
+	/** 
+	 * The largest absolute value returned by {@link #getPairGaussian}, the 
+	 * Box-Muller transform of a uniform number not smaller than 2^-53.
+	 */
+	protected static final double MAX_PAIR_GAUSSIAN = Math.sqrt(-2.0 * Math.log(0x1.0p-53));
+
 	/**
 	 * (Re)calculates the neighborhoods of every node  in the network. 
 	 * This operation should be called whenever the location of the nodes 
-	 * changed. This operation is extremely expensive and should be used sparsely.
+	 * changed. <br>
+	 * Only the nodes within the maximum radio range are examined, see 
+	 * {@link RadioModel#buildNeighborhoods}. The static fading of a pair does 
+	 * not depend on the order the pairs are examined in, see 
+	 * {@link #getPairGaussian}, so the neighborhoods are the same as if every 
+	 * pair was examined.
 	 */
 	public void updateNeighborhoods() {
-        // count nodes
-        int nodeNum = 0;
-        Node node1 = sim.firstNode;
-        while (node1 != null){
-            node1 = node1.nextNode;
-            ++nodeNum;
-        }
-        
-        Node[] neighbors = new Node[nodeNum];
-        double[] staticFadings = new double[nodeNum];
-                        
-		node1 = sim.firstNode;
-		while (node1 != null){
-			int i = 0;
-            Node node2 = sim.firstNode;
-			
-			while (node2 != null){
-				double staticRadioStrength = getStaticFading(node1, node2);
-				if( staticRadioStrength >= radioStrengthCutoff && node1 != node2){
-                    neighbors[i] = node2;
-                    staticFadings[i] = staticRadioStrength;                    
-					i++;
-				}
-				node2 = node2.nextNode;
-			}
-			
-			Neighborhood neighborhood = (Neighborhood)node1.getNeighborhood();
-			neighborhood.neighbors = new Node[i];
-            System.arraycopy(neighbors, 0, neighborhood.neighbors, 0, i );           
-			neighborhood.staticFadings = new double[i];
-            System.arraycopy(staticFadings, 0, neighborhood.staticFadings, 0, i );
-			neighborhood.dynamicStrengths = new double[i];			
-			node1 = node1.nextNode;
-		}
+		topologySeed = sim.random.nextLong();
+		buildNeighborhoods(sim, radioStrengthCutoff);
+	}
+
+	protected double getLinkFading(Node sender, int senderIndex, Node receiver, int receiverIndex){
+		return getStaticFading(sender, receiver, getPairGaussian(senderIndex, receiverIndex));
+	}
+
+	protected void setNeighbors(Node node, Node[] neighbors, double[] staticFadings){
+		Neighborhood neighborhood = (Neighborhood)node.getNeighborhood();
+		neighborhood.neighbors = neighbors;
+		neighborhood.staticFadings = staticFadings;
+		neighborhood.dynamicStrengths = new double[neighbors.length];
+	}
+
+	protected Node[] getNeighbors(Node node){
+		return ((Neighborhood)node.getNeighborhood()).neighbors;
+	}
+
+	protected double[] getStaticFadings(Node node){
+		return ((Neighborhood)node.getNeighborhood()).staticFadings;
+	}
+
+	/**
+	 * Calculates the distance beyond which the static fading is always below
+	 * the {@link #radioStrengthCutoff}, using the largest possible static 
+	 * random factor.
+	 * 
+	 * @param maxStrength the maximum radio strength of the nodes
+	 * @return the maximum range, infinite if it is not limited
+	 */
+	protected double getMaximumRange(double maxStrength){
+		double maxFading = maxStrength * (1.0 + Math.abs(staticRandomFactor) * MAX_PAIR_GAUSSIAN);
+		return getAttenuationRange(maxFading, radioStrengthCutoff);
+	}
+
+	/**
+	 * Returns a standard normal random number for an ordered pair of nodes,
+	 * derived from the {@link #topologySeed} and the positions of the nodes in
+	 * the node list by hashing. The result does not depend on which other 
+	 * pairs were asked before or by which thread, see 
+	 * {@link RadioModel#setParallelism}, and its absolute value is at most 
+	 * {@link #MAX_PAIR_GAUSSIAN}.
+	 * 
+	 * @param sender the position of the sender in the node list
+	 * @param receiver the position of the receiver in the node list
+	 * @return the random number
+	 */
+	protected double getPairGaussian(int sender, int receiver){
+		long h = mix(topologySeed + 0x9E3779B97F4A7C15L * ((((long)sender) << 32) + receiver + 1));
+		double u1 = ((h >>> 11) + 1) * 0x1.0p-53;
+		double u2 = (mix(h) >>> 11) * 0x1.0p-53;
+		return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+	}
+
+	/**
+	 * The neighborhoods also depend on the static random factor and the 
+	 * {@link #topologySeed}.
+	 */
+	protected long getParameterHash(){
+		long h = mix(super.getParameterHash() + Double.doubleToLongBits(staticRandomFactor));
+		return mix(h + topologySeed);
 	}
 
 	/**
@@ -130,13 +169,15 @@ public class GaussianRadioModel extends RadioModel {
 	 * Calculates the static part of the radio fading between two nodes based 
 	 * on distance and a random factor.
 	 * 
+	 * @param gaussian the standard normal random number of the pair, see
+	 * {@link #getPairGaussian}
 	 * @return The radio fading coefficient
 	 */
-	protected double getStaticFading(Node sender, Node receiver){
-		double staticRandomFading = 1.0 + staticRandomFactor * Simulator.random.nextGaussian();
+	protected double getStaticFading(Node sender, Node receiver, double gaussian){
+		double staticRandomFading = 1.0 + staticRandomFactor * gaussian;
 
 		return staticRandomFading <= 0.0 ? 0.0 : sender.getMaximumRadioStrength() * staticRandomFading 
-			/ (1.0 + Math.pow(sender.getDistanceSquare(receiver), fallingFactorHalf));
+			/ (1.0 + getAttenuation(sender.getDistanceSquare(receiver)));
 	}
 
 	/**
@@ -147,19 +188,23 @@ public class GaussianRadioModel extends RadioModel {
 	 * 
 	 * @param signalStrength the signal strength of the sender node
 	 * @param staticFading the static fading as returned by {@link GaussianRadioModel#getStaticFading}.
+	 * @param gaussian the standard normal random number of the link in the
+	 * transmission, see {@link Neighborhood#beginTransmission}
 	 * @return The signal strength at the receiver.
 	 */
-	protected double getDynamicStrength(double signalStrength, double staticFading){
-		double dynamicRandomFading = 1.0 + dynamicRandomFactor * Simulator.random.nextGaussian();
+	protected double getDynamicStrength(double signalStrength, double staticFading, double gaussian){
+		double dynamicRandomFading = 1.0 + dynamicRandomFactor * gaussian;
 		return dynamicRandomFading <= 0.0 ? 0.0 :
 			signalStrength * staticFading * dynamicRandomFading;
 	}
-	
+
 	/**
 	 * This class stores all the node related data the GaussianRadioModel needs, 
 	 * this includes an array of neighboring notes, the static fading and 
 	 * the dynamic strentgh as well for every neighboring nodes plus the entity
-	 * being transmitted by the node. 
+	 * being transmitted by the node. The arrays are not used if the 
+	 * neighborhoods are stored in a {@link LinkTable}, see 
+	 * {@link RadioModel#setCompactStorage} and {@link RadioModel#setLinkFile}.
 	 */
 	public class Neighborhood extends RadioModel.Neighborhood{
 		
@@ -188,7 +233,11 @@ public class GaussianRadioModel extends RadioModel {
 
 		/**
 		 * Calculates the dynamic signal strength based on the static fading 
-		 * factors and a per-transmission dynamic random factor. Then calls the 
+		 * factors and a per-transmission dynamic random factor. The factors 
+		 * of all the links are drawn in one batch by the {@link #linkFading}
+		 * generator, from a stream split from the stream of the node by the 
+		 * number of the transmission, see {@link Node#transmissionNum}, so 
+		 * they do not depend on the other nodes. Then calls the 
 		 * {@link Node#receptionBegin} method on all neighbors.
 		 */
 		protected void beginTransmission(double strength, Object stream){
@@ -199,12 +248,29 @@ public class GaussianRadioModel extends RadioModel {
 			
 			this.stream = stream;
 			
-			int i = neighbors.length;
-			while( --i >= 0 ){
-				double dynamicStrength = getDynamicStrength(strength, staticFadings[i]);
-				dynamicStrengths[i] = dynamicStrength;
-				neighbors[i].receptionBegin(dynamicStrength, stream);
+			linkFading.setState(SplitRandom.seed(node.getRandom().getSeed(), node.transmissionNum));
+			LinkTable links = linkTable;
+			if( links != null ){
+				if( index < 0 )
+					return;
+				long first = links.getFirstLink(index);
+				long i = links.getEndLink(index);
+				int count = (int)(i - first);
+				double[] samples = node.simulator.getFadingSamples(count);
+				linkFading.nextGaussians(samples, count);
+				for( int k=0; k<count; ++k )
+					links.setDynamicStrength(first + k, getDynamicStrength(strength, links.getStaticFading(first + k), samples[k]));
+				while( --i >= first )
+					beginReception(links.getNode(links.getTarget(i)), links.getDynamicStrength(i), stream);
+				return;
 			}
+
+			int i = neighbors.length;
+			linkFading.nextGaussians(dynamicStrengths, i);
+			for( int k=0; k<i; ++k )
+				dynamicStrengths[k] = getDynamicStrength(strength, staticFadings[k], dynamicStrengths[k]);
+			while( --i >= 0 )
+				beginReception(neighbors[i], dynamicStrengths[i], stream);
 		}
 		
 		/**
@@ -213,9 +279,21 @@ public class GaussianRadioModel extends RadioModel {
 		 * {@link RadioModel.Neighborhood#beginTransmission} method.
 		 */
 		protected void endTransmission(){
+			LinkTable links = linkTable;
+			if( links != null ){
+				if( index >= 0 ){
+					long first = links.getFirstLink(index);
+					long i = links.getEndLink(index);
+					while( --i >= first )
+						endReception(links.getNode(links.getTarget(i)), links.getDynamicStrength(i), stream);
+				}
+				stream = null;
+				return;
+			}
+
 			int i = neighbors.length;
 			while( --i >= 0 )
-				neighbors[i].receptionEnd(dynamicStrengths[i], stream);
+				endReception(neighbors[i], dynamicStrengths[i], stream);
 				
 			stream = null;
 		}
@@ -0,0 +1,176 @@
+package net.tinyos.prowler;
+
+import java.util.Arrays;
+
+/**
+ * An array based binary heap used as the event queue of the {@link Simulator}.
+ * {@link #add}, {@link #getAndRemoveFirst} and {@link #cancel} run in O(log n) time,
+ * unlike the {@link SimpleQeue} which walks its list on every insertion.
+ * Elements that compare equal are returned in the order they were added,
+ * just like in the {@link SimpleQeue}, so the two queues execute events in
+ * exactly the same order and experiments remain repeatable.
+ * <br>
+ * The heap is intrusive: every event stores its own slot and insertion number,
+ * see {@link Event#queueIndex}, so adding a reused event allocates nothing.
+ * For the same reason an event can be queued only once at a time.
+ */
+public class HeapQueue implements EventQueue
+{
+	/** The heap itself, the first element is always at index 0. */
+	private Event[] heap = new Event[64];
+
+	int size_ = 0;
+
+	/** Counts the insertions, see {@link Event#queueOrder}. */
+	private long insertCounter = 0;
+
+	public int size()
+	{
+		return size_;
+	}
+
+	public void add(Event event)
+	{
+		if(event.queueIndex >= 0)
+			throw new IllegalStateException("The event is already queued: " + event);
+		if(size_ == heap.length)
+			grow();
+		event.queueOrder = insertCounter++;
+		siftUp(size_++, event);
+	}
+
+	public Event first()
+	{
+		if(size_==0)
+			return null;
+		return heap[0];
+	}
+
+	public Event getAndRemoveFirst()
+	{
+		if(size_==0)
+			return null;
+		Event result = heap[0];
+		result.queueIndex = -1;
+		size_--;
+		Event last = heap[size_];
+		heap[size_] = null;
+		if(size_ > 0)
+			siftDown(0, last);
+		return result;
+	}
+
+	public boolean cancel(Event event)
+	{
+		int i = event.queueIndex;
+		if(i < 0 || i >= size_ || heap[i] != event)
+			return false;
+		event.queueIndex = -1;
+		size_--;
+		Event last = heap[size_];
+		heap[size_] = null;
+		if(i < size_)
+		{
+			if(i > 0 && before(last, heap[(i - 1) >>> 1]))
+				siftUp(i, last);
+			else
+				siftDown(i, last);
+		}
+		return true;
+	}
+
+	/**
+	 * @return returns the queued events in no particular order, the order
+	 * of their insertion is kept in {@link Event#queueOrder}
+	 */
+	Event[] getEvents()
+	{
+		return Arrays.copyOf(heap, size_);
+	}
+
+	public void clear()
+	{
+		for(int i=0;i<size_;i++)
+		{
+			heap[i].queueIndex = -1;
+			heap[i] = null;
+		}
+		size_ = 0;
+	}
+
+	/**
+	 * Compares the fields directly instead of calling {@link Event#compareTo},
+	 * this is the innermost loop of the simulator.
+	 * 
+	 * @return true if the event e1 has to be taken out before e2
+	 */
+	private static boolean before(Event e1, Event e2)
+	{
+		if(e1.time != e2.time)
+			return e1.time < e2.time;
+		if(e1.source != e2.source)
+			return e1.source < e2.source;
+		if(e1.serialNumber != e2.serialNumber)
+			return e1.serialNumber < e2.serialNumber;
+		return e1.queueOrder < e2.queueOrder;
+	}
+
+	/**
+	 * Moves the event up from the given slot until its parent precedes it.
+	 */
+	private void siftUp(int i, Event event)
+	{
+		while(i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			Event parentEvent = heap[parent];
+			if(!before(event, parentEvent))
+				break;
+			heap[i] = parentEvent;
+			parentEvent.queueIndex = i;
+			i = parent;
+		}
+		heap[i] = event;
+		event.queueIndex = i;
+	}
+
+	/**
+	 * Moves the event down from the given slot until it precedes its children.
+	 */
+	private void siftDown(int i, Event event)
+	{
+		while(true)
+		{
+			int child = 2 * i + 1;
+			if(child >= size_)
+				break;
+			Event childEvent = heap[child];
+			if(child + 1 < size_ && before(heap[child + 1], childEvent))
+				childEvent = heap[++child];
+			if(!before(childEvent, event))
+				break;
+			heap[i] = childEvent;
+			childEvent.queueIndex = i;
+			i = child;
+		}
+		heap[i] = event;
+		event.queueIndex = i;
+	}
+
+	private void grow()
+	{
+		Event[] newHeap = new Event[heap.length * 2];
+		System.arraycopy(heap, 0, newHeap, 0, size_);
+		heap = newHeap;
+	}
+
+	public String toString()
+	{
+		if(size_ == 0)
+			return "empty";
+		String result = Long.toString(heap[0].time);
+		for(int i=1;i<size_;i++)
+			result = result + "," + heap[i].time;
+		return result;
+	}
+}
@@ -0,0 +1,161 @@
+package net.tinyos.prowler;
+
+/**
+ * A static k-d tree over the positions of a set of nodes, used by the radio
+ * models to find the candidate neighbors of a node within a given radius.
+ * Every level splits its nodes in half at the median of the coordinate with
+ * the widest spread, so the tree stays balanced for clustered and other 
+ * non-uniform deployments, where a grid of fixed cells would end up with 
+ * most of the nodes in a few cells. Building takes O(n log n) time, a query
+ * takes O(log n + k) time for k nodes found in typical deployments. <br>
+ * The nodes are identified by their index in the array the tree was built
+ * from. The tree does not follow the nodes when they move, it has to be 
+ * rebuilt, see {@link SpatialGrid} for moving nodes.
+ */
+public class KdTree extends SpatialIndex {
+
+	/** The largest number of nodes in a leaf. */
+	private static final int LEAF_SIZE = 8;
+
+	/** The nodes the tree was built from. */
+	private Node[] nodes;
+
+	/** The node indices, every subtree holds a continuous range of it. */
+	private int[] order;
+
+	/** The coordinates of the nodes in the order of {@link #order}. */
+	private double[][] coordinates;
+
+	/** The split axis of each inner tree node, numbered as a heap from 1. */
+	private byte[] axes;
+
+	/** The split value of each inner tree node. */
+	private double[] splits;
+
+	/**
+	 * Builds the tree.
+	 * 
+	 * @param nodes the nodes, they must not move while the tree is used
+	 */
+	public KdTree(Node[] nodes){
+		this.nodes = nodes;
+		int n = nodes.length;
+		order = new int[n];
+		double[][] position = new double[3][n];
+		for( int i=0; i<n; ++i ){
+			order[i] = i;
+			position[0][i] = nodes[i].x;
+			position[1][i] = nodes[i].y;
+			position[2][i] = nodes[i].z;
+		}
+
+		int treeSize = 2;
+		while( treeSize * LEAF_SIZE < 2 * n )
+			treeSize *= 2;
+		axes = new byte[treeSize];
+		splits = new double[treeSize];
+		build(1, 0, n, position);
+
+		coordinates = new double[3][n];
+		for( int i=0; i<n; ++i ){
+			for( int a=0; a<3; ++a )
+				coordinates[a][i] = position[a][order[i]];
+		}
+	}
+
+	/**
+	 * @return returns the number of nodes in the tree
+	 */
+	public int size(){
+		return nodes.length;
+	}
+
+	/**
+	 * Splits the range [lo, hi) of the order at its middle.
+	 */
+	private void build(int treeNode, int lo, int hi, double[][] position){
+		if( hi - lo <= LEAF_SIZE )
+			return;
+
+		int axis = 0;
+		double widest = -1.0;
+		for( int a=0; a<3; ++a ){
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for( int i=lo; i<hi; ++i ){
+				double v = position[a][order[i]];
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			if( max - min > widest ){
+				widest = max - min;
+				axis = a;
+			}
+		}
+
+		int mid = (lo + hi) >>> 1;
+		select(position[axis], lo, hi - 1, mid);
+		axes[treeNode] = (byte)axis;
+		splits[treeNode] = position[axis][order[mid]];
+		build(2 * treeNode, lo, mid, position);
+		build(2 * treeNode + 1, mid, hi, position);
+	}
+
+	/**
+	 * Rearranges the order between lo and hi (inclusive) so that the k-th 
+	 * element is in place, the ones before it are not greater and the ones 
+	 * after it are not smaller.
+	 */
+	private void select(double[] values, int lo, int hi, int k){
+		while( lo < hi ){
+			double pivot = values[order[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while( i <= j ){
+				while( values[order[i]] < pivot )
+					++i;
+				while( values[order[j]] > pivot )
+					--j;
+				if( i <= j ){
+					int t = order[i];
+					order[i] = order[j];
+					order[j] = t;
+					++i;
+					--j;
+				}
+			}
+			if( k <= j )
+				hi = j;
+			else if( k >= i )
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	public void findWithin(Node center, double radius, Result result){
+		double[] point = { center.x, center.y, center.z };
+		result.size = 0;
+		find(1, 0, nodes.length, point, radius, radius * radius, result);
+	}
+
+	private void find(int treeNode, int lo, int hi, double[] point, double radius, 
+			double radiusSquare, Result result){
+		if( hi - lo <= LEAF_SIZE ){
+			double[] xs = coordinates[0], ys = coordinates[1], zs = coordinates[2];
+			for( int i=lo; i<hi; ++i ){
+				double dx = xs[i] - point[0];
+				double dy = ys[i] - point[1];
+				double dz = zs[i] - point[2];
+				if( dx*dx + dy*dy + dz*dz <= radiusSquare )
+					result.add(order[i]);
+			}
+			return;
+		}
+
+		int mid = (lo + hi) >>> 1;
+		double delta = point[axes[treeNode]] - splits[treeNode];
+		if( delta <= radius )
+			find(2 * treeNode, lo, mid, point, radius, radiusSquare, result);
+		if( delta >= -radius )
+			find(2 * treeNode + 1, mid, hi, point, radius, radiusSquare, result);
+	}
+}
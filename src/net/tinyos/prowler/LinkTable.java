@@ -0,0 +1,126 @@
+package net.tinyos.prowler;
+
+import java.util.List;
+
+/**
+ * The neighborhoods of the whole network in compressed sparse row form, see
+ * {@link RadioModel#setCompactStorage} and {@link RadioModel#setLinkFile}.
+ * The nodes are addressed by their position in the node list, the links of
+ * a sender are numbered one after the other in the order of the node list,
+ * from {@link #getFirstLink} to {@link #getEndLink}. There is no array or
+ * object per node, so this layout needs much less memory than the arrays of
+ * the neighborhoods, and a transmission walks contiguous memory. <br>
+ * The links are kept on the heap by the {@link ArrayLinkTable}, and in a
+ * memory-mapped file by the {@link MappedLinkTable}.
+ */
+public abstract class LinkTable {
+
+	/** The nodes by their index. */
+	Node[] nodes;
+
+	/**
+	 * The links of a range of nodes, collected row by row.
+	 */
+	static class Builder {
+
+		int from;
+
+		int to;
+
+		int size = 0;
+
+		int[] rowEnds;
+
+		int[] targets = new int[64];
+
+		double[] staticFadings = new double[64];
+
+		Builder(int from, int to){
+			this.from = from;
+			this.to = to;
+			rowEnds = new int[to - from];
+		}
+
+		/**
+		 * Adds the links of the next node.
+		 */
+		void addRow(int node, int[] neighbors, double[] fadings, int count){
+			if( size + count > targets.length ){
+				int length = Math.max(2 * targets.length, size + count);
+				int[] newTargets = new int[length];
+				double[] newFadings = new double[length];
+				System.arraycopy(targets, 0, newTargets, 0, size);
+				System.arraycopy(staticFadings, 0, newFadings, 0, size);
+				targets = newTargets;
+				staticFadings = newFadings;
+			}
+			System.arraycopy(neighbors, 0, targets, size, count);
+			System.arraycopy(fadings, 0, staticFadings, size, count);
+			size += count;
+			rowEnds[node - from] = size;
+		}
+	}
+
+	/**
+	 * @return returns the total number of links of the given rows
+	 */
+	static long getLinkNum(List<Builder> parts){
+		long linkNum = 0;
+		for( Builder part : parts )
+			linkNum += part.size;
+		return linkNum;
+	}
+
+	/**
+	 * @return returns the number of nodes
+	 */
+	public int getNodeNum(){
+		return nodes.length;
+	}
+
+	/**
+	 * @return returns the node at the given index
+	 */
+	public Node getNode(int index){
+		return nodes[index];
+	}
+
+	/**
+	 * @return returns the number of links
+	 */
+	public abstract long getLinkNum();
+
+	/**
+	 * @return returns the first link of the given sender
+	 */
+	public abstract long getFirstLink(int index);
+
+	/**
+	 * @return returns the link after the last link of the given sender
+	 */
+	public abstract long getEndLink(int index);
+
+	/**
+	 * @return returns the index of the receiver of a link
+	 */
+	public abstract int getTarget(long link);
+
+	/**
+	 * @return returns the static fading of a link
+	 */
+	public abstract double getStaticFading(long link);
+
+	/**
+	 * @return returns the signal strength of the last transmission over a 
+	 * link, or the power of the fading for the {@link RayleighRadioModel}
+	 */
+	public abstract double getDynamicStrength(long link);
+
+	/**
+	 * Stores the signal strength of the current transmission over a link, it
+	 * is needed for the matching {@link Node#receptionEnd} call. The 
+	 * {@link RayleighRadioModel} stores the power of the fading instead, 
+	 * which is kept for the coherence time.
+	 */
+	public abstract void setDynamicStrength(long link, double strength);
+}
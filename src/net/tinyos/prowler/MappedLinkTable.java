@@ -0,0 +1,292 @@
+package net.tinyos.prowler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * A {@link LinkTable} in a memory-mapped file, so the topology is not on
+ * the heap and the operating system pages the links in and out as needed.
+ * The file is written once by a {@link Writer}, and it is reopened by
+ * {@link #open} in O(1) time as long as the hash of the topology in its
+ * header matches, see {@link RadioModel#setLinkFile}. <br>
+ * The file consists of a header, the offsets of the rows as longs, and the
+ * links as an int receiver and a double static fading each, in the native 
+ * byte order. Every part is mapped read-only in chunks of 2^26 elements, so
+ * the number of links is not limited by the 2 GB size of a mapped buffer. 
+ * The dynamic strengths change with every transmission, they are kept on 
+ * the heap, a double per link, so the file is never written after it is 
+ * complete and several tables may map it at the same time.
+ */
+public class MappedLinkTable extends LinkTable {
+
+	/** The first bytes of a link file. */
+	private static final long MAGIC = 0x50524F574C4E4B32L;
+
+	/** The size of the header: magic, complete flag, hash, node and link number. */
+	private static final int HEADER_SIZE = 32;
+
+	/** The size of a link: the receiver and the static fading. */
+	private static final int LINK_SIZE = 12;
+
+	/** The number of bits of the element index within a chunk. */
+	private static final int CHUNK_BITS = 26;
+
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	/** The file, kept open while the table is used. */
+	private RandomAccessFile file;
+
+	private long linkNum;
+
+	private MappedByteBuffer[] offsets;
+
+	private MappedByteBuffer[] links;
+
+	/** The signal strength of the last transmission over every link, in chunks. */
+	private double[][] dynamicStrengths;
+
+	/**
+	 * Maps an opened and complete link file.
+	 */
+	private MappedLinkTable(RandomAccessFile file, Node[] nodes, long linkNum) throws IOException{
+		this.file = file;
+		this.nodes = nodes;
+		this.linkNum = linkNum;
+		FileChannel channel = file.getChannel();
+		long linksStart = getLinksStart(nodes.length);
+		offsets = map(channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE, nodes.length + 1, 8);
+		links = map(channel, FileChannel.MapMode.READ_ONLY, linksStart, linkNum, LINK_SIZE);
+		dynamicStrengths = new double[(int)((linkNum + CHUNK_MASK) >>> CHUNK_BITS)][];
+		for( int c=0; c<dynamicStrengths.length; ++c )
+			dynamicStrengths[c] = new double[(int)Math.min(linkNum - ((long)c << CHUNK_BITS), 1L << CHUNK_BITS)];
+	}
+
+	private static long getLinksStart(int nodeNum){
+		return HEADER_SIZE + 8L * (nodeNum + 1);
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode,
+			long start, long count, int elementSize) throws IOException{
+		MappedByteBuffer[] chunks = new MappedByteBuffer[(int)((count + CHUNK_MASK) >>> CHUNK_BITS)];
+		for( int c=0; c<chunks.length; ++c ){
+			long first = (long)c << CHUNK_BITS;
+			long size = Math.min(count - first, 1L << CHUNK_BITS) * elementSize;
+			chunks[c] = channel.map(mode, start + first * elementSize, size);
+			chunks[c].order(ByteOrder.nativeOrder());
+		}
+		return chunks;
+	}
+
+	/**
+	 * Opens a link file written earlier.
+	 *
+	 * @param file the link file
+	 * @param nodes the nodes
+	 * @param hash the hash of the topology, see {@link RadioModel#setLinkFile}
+	 * @return returns the table, or null if the file does not exist, it is
+	 * incomplete or it was written for another topology
+	 * @throws IOException if the file cannot be read
+	 */
+	public static MappedLinkTable open(File file, Node[] nodes, long hash) throws IOException{
+		if( !file.isFile() || file.length() < HEADER_SIZE )
+			return null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			raf.getChannel().read(header, 0);
+			header.flip();
+			if( header.getLong(0) == MAGIC && header.getInt(8) == 1 && header.getLong(12) == hash
+					&& header.getInt(20) == nodes.length ){
+				long linkNum = header.getLong(24);
+				if( file.length() == getLinksStart(nodes.length) + linkNum * LINK_SIZE ){
+					MappedLinkTable table = new MappedLinkTable(raf, nodes, linkNum);
+					raf = null;
+					return table;
+				}
+			}
+			return null;
+		}
+		finally{
+			if( raf != null )
+				raf.close();
+		}
+	}
+
+	/**
+	 * Writes a link file row by row, so only the rows being written are on
+	 * the heap. The rows go to a temporary file in the same directory, which
+	 * replaces the link file when it is complete, so a table still mapping 
+	 * the old file keeps its links. {@link #close} must be called in any 
+	 * case, it deletes the temporary file if the link file was not finished.
+	 */
+	static class Writer {
+
+		/** The link file. */
+		private File target;
+
+		/** The temporary file, null after it replaced the link file. */
+		private File temporary;
+
+		private RandomAccessFile file;
+
+		private FileChannel channel;
+
+		private Node[] nodes;
+
+		private long hash;
+
+		/** The number of links written so far. */
+		private long linkNum = 0;
+
+		private long linksStart;
+
+		/**
+		 * Creates the temporary file of a link file.
+		 *
+		 * @param file the link file
+		 * @param nodes the nodes
+		 * @param hash the hash of the topology
+		 * @throws IOException if the file cannot be written
+		 */
+		Writer(File file, Node[] nodes, long hash) throws IOException{
+			target = file.getAbsoluteFile();
+			temporary = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+			this.nodes = nodes;
+			this.hash = hash;
+			linksStart = getLinksStart(nodes.length);
+			try{
+				this.file = new RandomAccessFile(temporary, "rw");
+				channel = this.file.getChannel();
+				writeHeader(0);
+				ByteBuffer firstOffset = ByteBuffer.allocate(8);
+				write(firstOffset, HEADER_SIZE);
+			}
+			catch(IOException e){
+				close();
+				throw e;
+			}
+		}
+
+		private void writeHeader(int complete) throws IOException{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			header.putLong(MAGIC).putInt(complete).putLong(hash).putInt(nodes.length).putLong(linkNum);
+			header.flip();
+			write(header, 0);
+		}
+
+		private void write(ByteBuffer buffer, long position) throws IOException{
+			while( buffer.hasRemaining() )
+				position += channel.write(buffer, position);
+		}
+
+		/**
+		 * Appends the rows of the next nodes.
+		 *
+		 * @param parts the rows of consecutive nodes, following the rows written before
+		 * @throws IOException if the file cannot be written
+		 */
+		void write(List<Builder> parts) throws IOException{
+			for( Builder part : parts ){
+				ByteBuffer rowOffsets = ByteBuffer.allocate(8 * (part.to - part.from)).order(ByteOrder.nativeOrder());
+				for( int i=part.from; i<part.to; ++i )
+					rowOffsets.putLong(linkNum + part.rowEnds[i - part.from]);
+				rowOffsets.flip();
+				write(rowOffsets, HEADER_SIZE + 8L * (part.from + 1));
+
+				ByteBuffer partLinks = ByteBuffer.allocate(LINK_SIZE * part.size).order(ByteOrder.nativeOrder());
+				for( int k=0; k<part.size; ++k )
+					partLinks.putInt(part.targets[k]).putDouble(part.staticFadings[k]);
+				partLinks.flip();
+				write(partLinks, linksStart + linkNum * LINK_SIZE);
+				linkNum += part.size;
+			}
+		}
+
+		/**
+		 * Completes the file, puts it in the place of the link file and maps
+		 * it.
+		 *
+		 * @return returns the table
+		 * @throws IOException if the file cannot be written
+		 */
+		MappedLinkTable finish() throws IOException{
+			channel.force(false);
+			writeHeader(1);
+			channel.force(true);
+			file.close();
+			file = null;
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+			temporary = null;
+			MappedLinkTable table = open(target, nodes, hash);
+			if( table == null )
+				throw new IOException("The link file was changed while it was written: " + target);
+			return table;
+		}
+
+		/**
+		 * Closes the temporary file and deletes it unless it became the link
+		 * file.
+		 *
+		 * @throws IOException if the file cannot be closed
+		 */
+		void close() throws IOException{
+			try{
+				if( file != null )
+					file.close();
+			}
+			finally{
+				file = null;
+				if( temporary != null && !temporary.delete() && temporary.exists() )
+					throw new IOException("Cannot delete the temporary file " + temporary);
+				temporary = null;
+			}
+		}
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released when the table is
+	 * garbage collected.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close() throws IOException{
+		file.close();
+	}
+
+	public long getLinkNum(){
+		return linkNum;
+	}
+
+	public long getFirstLink(int index){
+		return offsets[index >>> CHUNK_BITS].getLong((int)(index & CHUNK_MASK) << 3);
+	}
+
+	public long getEndLink(int index){
+		return getFirstLink(index + 1);
+	}
+
+	public int getTarget(long link){
+		return links[(int)(link >>> CHUNK_BITS)].getInt((int)(link & CHUNK_MASK) * LINK_SIZE);
+	}
+
+	public double getStaticFading(long link){
+		return links[(int)(link >>> CHUNK_BITS)].getDouble((int)(link & CHUNK_MASK) * LINK_SIZE + 4);
+	}
+
+	public double getDynamicStrength(long link){
+		return dynamicStrengths[(int)(link >>> CHUNK_BITS)][(int)(link & CHUNK_MASK)];
+	}
+
+	public void setDynamicStrength(long link, double strength){
+		dynamicStrengths[(int)(link >>> CHUNK_BITS)][(int)(link & CHUNK_MASK)] = strength;
+	}
+}
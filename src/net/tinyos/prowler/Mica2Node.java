@@ -52,6 +52,9 @@ public class Mica2Node extends Node {
 	 */
 	protected Node parentNode = null;
 
+	/** The transmission being received right now, sent by the {@link #parentNode}. */
+	protected Transmission parentTransmission = null;
+
 	/**	
 	 * This is the message being sent, on reception it is extracted and the 
 	 * message part is forwarded to the appropriate application, see
@@ -153,12 +156,62 @@ public class Mica2Node extends Node {
 	/** The maximum signal to noise ratio below which a message is marked corrupted. */
 	public double corruptionSNR                 = 2.0;
 	
+	/**
+	 * The stream object of the transmissions of a Mica2Node. It holds the 
+	 * message and the application sending it, so the receivers do not read
+	 * them from the sender node, which may have moved on to its next message
+	 * by the time a reception ends in a {@link ParallelSimulator}.
+	 */
+	public static class Transmission {
+
+		/** The sender node. */
+		public final Mica2Node sender;
+
+		/** The message being transmitted. */
+		public final Object message;
+
+		/** The application which sent the message. */
+		public final Application application;
+
+		/** 
+		 * The number of the transmission at the sender, see 
+		 * {@link Node#transmissionNum}, the transmission must be begun right
+		 * after it is created.
+		 */
+		public final long number;
+
+		public Transmission(Mica2Node sender, Object message, Application application){
+			this.sender = sender;
+			this.message = message;
+			this.application = application;
+			this.number = sender.transmissionNum;
+		}
+
+		/**
+		 * Two transmissions are equal if they are the same transmission of the
+		 * same sender with equal messages, so the {@link ParallelSimulator}
+		 * recognizes a transmission repeated after a rollback.
+		 */
+		public boolean equals(Object other){
+			if( !(other instanceof Transmission) )
+				return false;
+			Transmission transmission = (Transmission)other;
+			return sender == transmission.sender && number == transmission.number
+				&& application == transmission.application
+				&& (message == null ? transmission.message == null : message.equals(transmission.message));
+		}
+
+		public int hashCode(){
+			return 31 * sender.hashCode() + (int)number;
+		}
+	}
+
 	/**
 	 * Inner class TestChannelEvent. Represents a test event, this happens when 
 	 * the mote listens for radio traffic to decide about transmission.
 	 */    
 
-	class TestChannelEvent extends Event {
+	class TestChannelEvent extends Event implements RadioEventIF {
 		
 		/**
 		 * If the radio channel is clear it begins the transmission process, 
@@ -169,7 +222,7 @@ public class Mica2Node extends Node {
 			if( isChannelFree( noiseStrength ) && !receiving){
 				// start transmitting
 				transmitting = true;
-				beginTransmission(1, Mica2Node.this);
+				beginTransmission(1, new Transmission(Mica2Node.this, message, senderApplication));
 				endTransmissionEvent.time = time + sendTransmissionTime;
 				simulator.addEvent( endTransmissionEvent );
 			}else{
@@ -179,6 +232,10 @@ public class Mica2Node extends Node {
 			}
 		}        
         
+		public Node getNode(){
+			return Mica2Node.this;
+		}
+
 		public String toString(){
 			return Long.toString(time) + "\tTestChannelEvent\t" + Mica2Node.this;
 		}
@@ -187,7 +244,7 @@ public class Mica2Node extends Node {
 	/**
 	 * Inner class EndTransmissionEvent. Represents the end of a transmission.
 	 */
-	class EndTransmissionEvent extends Event {
+	class EndTransmissionEvent extends Event implements RadioEventIF {
 		/**
 		 * Removes the noise generated by the transmission and sets the state 
 		 * variables accordingly.
@@ -200,6 +257,10 @@ public class Mica2Node extends Node {
             senderApplication.sendMessageDone();            
 		}
         
+		public Node getNode(){
+			return Mica2Node.this;
+		}
+
 		public String toString(){
 			return Long.toString(time) + "\tNode.EndTransmissionEvent\t" + Mica2Node.this;
 		}        
@@ -272,8 +333,8 @@ public class Mica2Node extends Node {
 	 * 
 	 * @return returns the waiting time in milliseconds
 	*/
-	public static int generateWaitingTime(){
-		return sendMinWaitingTime + (int)(Simulator.random.nextDouble() * sendRandomWaitingTime);
+	public int generateWaitingTime(){
+		return sendMinWaitingTime + (int)(getRandom().nextDouble() * sendRandomWaitingTime);
 	}
 
 	/** 
@@ -282,8 +343,8 @@ public class Mica2Node extends Node {
 	 * 
 	 * @return returns the backoff time in milliseconds
 	*/
-	protected static int generateBackOffTime(){
-		return sendMinBackOffTime + (int)(Simulator.random.nextDouble() * sendRandomBackOffTime);
+	protected int generateBackOffTime(){
+		return sendMinBackOffTime + (int)(getRandom().nextDouble() * sendRandomBackOffTime);
 	}
 
 	/** 
@@ -346,16 +407,17 @@ public class Mica2Node extends Node {
             if( isMessageCorrupted( signalStrength, noiseStrength ) ){
                 corrupted = true;
                 if (listenerApplication != null){
-                    listenerApplication.corruptMessage(((Mica2Node)parentNode).message);
+                    listenerApplication.corruptMessage(parentTransmission.message);
                 }                
             }
             if (listenerApplication != null){
-                listenerApplication.corruptMessage(((Mica2Node)stream).message);
+                listenerApplication.corruptMessage(((Transmission)stream).message);
             }                
         } else{
             if( !transmitting && isReceivable( level, noiseStrength) ){
                 // start receiving
-				parentNode = (Node)stream;
+				parentTransmission = (Transmission)stream;
+				parentNode = parentTransmission.sender;
                 receiving      = true;
                 corrupted      = false;
                 signalStrength = level;
@@ -374,18 +436,19 @@ public class Mica2Node extends Node {
      * @param level the level of noise
      */
     protected void removeNoise( double level, Object stream ){
-        if( parentNode == stream ){            
+        if( parentTransmission != null && parentTransmission.equals(stream) ){            
             receiving = false;
             if( !corrupted ){
-				Application tempApp = getApplication(((Mica2Node)stream).senderApplication.getClass());
-                tempApp.receiveMessage(((Mica2Node)stream).message, (Node)stream);
+				Application tempApp = getApplication(parentTransmission.application.getClass());
+                tempApp.receiveMessage(parentTransmission.message, parentNode);
                 
                 if (listenerApplication != null){
-                    listenerApplication.receiveMessage(((Mica2Node)stream).message, (Node)stream);
+                    listenerApplication.receiveMessage(parentTransmission.message, parentNode);
                 }
             }
             signalStrength = 0;
             parentNode = null;
+            parentTransmission = null;
             if( sendingPostponed ){            
                 sendingPostponed = false;
                 testChannelEvent.time = simulator.getSimulationTime() + generateWaitingTime();
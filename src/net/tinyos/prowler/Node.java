@@ -25,6 +25,7 @@
 package net.tinyos.prowler;
 
 import javafx.scene.shape.Circle;
+import net.goui.util.SplitRandom;
 import net.tinyos.prowler.RadioModel.Neighborhood;
 
 /**
@@ -80,6 +81,29 @@ public abstract class Node extends Circle {
 	 */
 	private Neighborhood neighborhood;
 
+	/**
+	 * The position of this node in the node list of the simulator when the 
+	 * neighborhoods were last computed, -1 if they were not, see 
+	 * {@link RadioModel#nodeMoved}.
+	 */
+	int radioIndex = -1;
+
+	/**
+	 * The number of events scheduled on behalf of this node, the serial 
+	 * number of its next event, see {@link Simulator#addEvent}.
+	 */
+	long eventNum = 0;
+
+	/**
+	 * The number of transmissions begun by this node, the number of the 
+	 * transmission being begun during {@link #beginTransmission}. The radio
+	 * models key the dynamic fadings of a transmission by it.
+	 */
+	protected long transmissionNum = 0;
+
+	/** The random stream of this node, see {@link #getRandom}. */
+	private SplitRandom random = null;
+
 	/**
 	 * Parameterized constructor, sets the simulator and creates an initial 
 	 * neighborhood using the RadioModel as a factory.
@@ -90,6 +114,7 @@ public abstract class Node extends Circle {
 	public Node(Simulator sim, RadioModel radioModel){
 		this.simulator = sim;
 		neighborhood = radioModel.createNeighborhood();
+		neighborhood.node = this;
 	} 
 	
 	/**
@@ -148,6 +173,7 @@ public abstract class Node extends Circle {
 	 */		
 	protected final void beginTransmission(double strength, Object stream) {
 		neighborhood.beginTransmission(strength, stream);
+		++transmissionNum;
 	}
 
 	/**
@@ -215,7 +241,8 @@ public abstract class Node extends Circle {
 	/**
 	 * Sets the position of the mote in space. Please call the 
 	 * {@link RadioModel#updateNeighborhoods} to update the network topology 
-	 * information before starting the simulation.
+	 * information before starting the simulation, or 
+	 * {@link RadioModel#nodeMoved} if only this node moved.
 	 * 
 	 * @param x the x position
 	 * @param y the y position
@@ -264,6 +291,22 @@ public abstract class Node extends Circle {
 	public Simulator getSimulator(){
 		return simulator;
 	}
+
+	/**
+	 * Returns the random stream of this node, every random decision of the
+	 * node and of its applications should be drawn from it. The stream is
+	 * derived from the seed of the simulator and the id of the node, see
+	 * {@link SplitRandom#seed(long, long)}, so the numbers a node draws do
+	 * not depend on the draws of the other nodes, nor on the order their
+	 * events are executed in. Nodes with the same id draw the same numbers.
+	 * 
+	 * @return the stream, created when it is first needed
+	 */
+	public SplitRandom getRandom(){
+		if( random == null )
+			random = new SplitRandom(SplitRandom.seed(simulator.streamSeed, id));
+		return random;
+	}
 	
 	/**
 	 * This function is part of the application management. Adds an 
@@ -0,0 +1,129 @@
+package net.tinyos.prowler;
+
+/**
+ * Floods a message over a field of {@link TestBroadcastNode} motes with the
+ * sequential {@link Simulator} and with the {@link ParallelSimulator}, and
+ * compares the results and the running times. A parallel run must give the
+ * same result as the sequential one with any number of partitions, tried
+ * with 1, 2, 4, 8 and the given number, and on one and on several threads,
+ * both in the conservative and in the optimistic mode, otherwise an
+ * exception is thrown. <br>
+ * Usage: ParallelBenchmark [nodeNum] [partitionNum] [threadNum], 100000
+ * motes, 16 partitions and all the processors by default.
+ */
+public class ParallelBenchmark {
+
+	/** The result of a flood. */
+	static class Result {
+
+		/** The number of motes which forwarded the message. */
+		int sent = 0;
+
+		/** A hash of the motes which forwarded the message. */
+		long hash = 0;
+
+		/** The time of the last event. */
+		long time;
+
+		/** The running time in milliseconds. */
+		long millis;
+
+		boolean equals(Result other){
+			return sent == other.sent && hash == other.hash && time == other.time;
+		}
+
+		public String toString(){
+			return "sent=" + sent + " time=" + time + " hash=" + hash + " millisecs=" + millis;
+		}
+	}
+
+	/**
+	 * Creates the field, the root is in the middle with the id 1.
+	 */
+	static TestBroadcastNode createField(Simulator sim, RadioModel radioModel, int nodeNum) throws Exception{
+		double areaWidth = 300 * Math.sqrt(nodeNum / 1000.0);
+		TestBroadcastNode root = (TestBroadcastNode)sim.createNode(TestBroadcastNode.class, radioModel, 1,
+			areaWidth / 2, areaWidth / 2, 0);
+		sim.createNodes(TestBroadcastNode.class, radioModel, 2, nodeNum, areaWidth, 5);
+		for( Node node = sim.getFirstNode(); node != null; node = node.nextNode )
+			((TestBroadcastNode)node).new BroadcastApplication(node);
+		radioModel.updateNeighborhoods();
+		return root;
+	}
+
+	static void send(TestBroadcastNode root){
+		root.sendMessage("test message", root.getApplication(TestBroadcastNode.BroadcastApplication.class));
+	}
+
+	static Result getResult(Simulator sim, long time, long millis){
+		Result result = new Result();
+		for( Node node = sim.getFirstNode(); node != null; node = node.nextNode ){
+			boolean sent = ((TestBroadcastNode)node).sent;
+			if( sent )
+				++result.sent;
+			result.hash = 31 * result.hash + (sent ? 1 : 0);
+		}
+		result.time = time;
+		result.millis = millis;
+		return result;
+	}
+
+	static Result runSequential(int nodeNum) throws Exception{
+		Simulator sim = new Simulator();
+		TestBroadcastNode root = createField(sim, new GaussianRadioModel(sim), nodeNum);
+		long time0 = System.currentTimeMillis();
+		send(root);
+		sim.run(1000);
+		return getResult(sim, sim.getSimulationTime(), System.currentTimeMillis() - time0);
+	}
+
+	static Result runParallel(int nodeNum, int partitionNum, int threadNum, boolean optimistic) throws Exception{
+		Simulator sim = new Simulator();
+		RadioModel radioModel = new GaussianRadioModel(sim);
+		TestBroadcastNode root = createField(sim, radioModel, nodeNum);
+		ParallelSimulator parallel = new ParallelSimulator(sim, radioModel, partitionNum);
+		parallel.setThreadNum(threadNum);
+		parallel.setOptimistic(optimistic);
+		long time0 = System.currentTimeMillis();
+		send(root);
+		parallel.run(1000);
+		Result result = getResult(sim, parallel.getSimulationTime(), System.currentTimeMillis() - time0);
+		System.out.println((optimistic ? "optimistic, " : "conservative, ") + partitionNum + " partitions, "
+			+ threadNum + " threads: " + result + " rounds=" + parallel.getRoundNum() + " remote receptions="
+			+ parallel.getRemoteReceptionNum());
+		if( optimistic )
+			System.out.println("windows=" + parallel.getWindowNum() + " rollbacks=" + parallel.getRollbackNum()
+				+ " fallbacks=" + parallel.getFallbackNum());
+		return result;
+	}
+
+	/** The numbers of partitions compared with the sequential run besides the given one. */
+	static final int[] PARTITION_NUMS = { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws Exception{
+		int nodeNum = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int partitionNum = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int threadNum = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		Result sequential = runSequential(nodeNum);
+		System.out.println("sequential: " + sequential);
+		for( int mode=0; mode<2; ++mode ){
+			boolean optimistic = mode == 1;
+			for( int i=0; i<PARTITION_NUMS.length; ++i ){
+				if( PARTITION_NUMS[i] == partitionNum || PARTITION_NUMS[i] > nodeNum )
+					continue;
+				Result partitioned = runParallel(nodeNum, PARTITION_NUMS[i], i == 0 ? 1 : threadNum, optimistic);
+				if( !partitioned.equals(sequential) )
+					throw new IllegalStateException(PARTITION_NUMS[i] + " partitions differ from the sequential run");
+			}
+
+			Result oneThread = runParallel(nodeNum, partitionNum, 1, optimistic);
+			Result threads = runParallel(nodeNum, partitionNum, threadNum, optimistic);
+			if( !oneThread.equals(sequential) )
+				throw new IllegalStateException(partitionNum + " partitions differ from the sequential run");
+			if( !threads.equals(oneThread) )
+				throw new IllegalStateException("The result depends on the number of threads");
+			System.out.println("speedup " + (double)sequential.millis / Math.max(1, threads.millis));
+		}
+	}
+}
@@ -0,0 +1,1021 @@
+package net.tinyos.prowler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the nodes of a simulator on several threads by conservative parallel
+ * discrete event simulation. The field is split into partitions of nearby
+ * nodes by recursive bisection, and every partition is a {@link Simulator} of
+ * its own with its own event queue, time and random generators, which
+ * becomes the {@link Node#simulator} of its nodes. The partitions only
+ * interact by radio: a transmission reaching a node of another partition is
+ * passed to that partition as an event with the time, owner position and
+ * serial number of the sender event, see 
+ * {@link RadioModel.Neighborhood#beginReception}, so it takes the same place
+ * among the events of the receiver as in the {@link Simulator}, where the
+ * events of the same time are ordered by their nodes, see 
+ * {@link Simulator#addEvent}. <br>
+ * The partitions run in rounds separated by barriers. A radio event, see
+ * {@link RadioEventIF}, is always scheduled at least the lookahead ahead, the
+ * smaller of {@link Mica2Node#sendMinWaitingTime} and
+ * {@link Mica2Node#sendMinBackOffTime}. So no partition can transmit to
+ * another one before the earliest queued radio event of its nodes linked to
+ * the other, or before the earliest queued event of all partitions plus the
+ * lookahead. In a round every partition executes its events before the
+ * earliest such event of the partitions having links into it, by the order 
+ * of the event queue, then the receptions are handed over. <br>
+ * So the results are the same as those of the sequential simulator for any
+ * number of partitions and threads, as long as the nodes draw only from 
+ * their own streams, see {@link Node#getRandom}: the {@link Simulator#random}
+ * of every partition but the first is a new one, and the events added 
+ * without an owner, see {@link Simulator#addEvent}, are numbered by each
+ * partition on its own. <br>
+ * Limits: the neighborhoods must
+ * not change during a run. The nodes and their applications may only touch
+ * their own node, the messages they receive and their own partition; shared
+ * statistics must be synchronized. Only radio events may begin or end
+ * transmissions, which is checked when a reception crosses partitions. A
+ * round ends at the next radio event at the border of a neighboring 
+ * partition, so busy channels mean short rounds, and only large fields with
+ * few partitions gain a speedup. The optimistic mode runs longer windows
+ * speculatively and rolls back where needed, see {@link #setOptimistic}.
+ */
+public class ParallelSimulator {
+
+	/** The partitions, the logical processes. */
+	private Partition[] partitions;
+
+	/** The lookahead in 1/{@link Simulator#ONE_SECOND} second, see {@link #getLookahead}. */
+	private long lookahead;
+
+	/** The number of threads running the partitions. */
+	private int threadNum = Runtime.getRuntime().availableProcessors();
+
+	/** The number of rounds run so far. */
+	private long roundNum = 0;
+
+	/** The link table of the radio model, or null, see {@link PartitionState}. */
+	private LinkTable table;
+
+	/** True in the optimistic mode, see {@link #setOptimistic}. */
+	private boolean optimistic = false;
+
+	/** The length of the windows of the optimistic mode. */
+	private long window = Simulator.ONE_SECOND / 100;
+
+	/** The number of windows of the optimistic mode run so far. */
+	private long windowNum = 0;
+
+	/** The number of windows run conservatively as they did not settle. */
+	private long fallbackNum = 0;
+
+	/** The end of the current round or window. */
+	private long end;
+
+	/** The order of the event queues, see {@link Event#compare}. */
+	static final Comparator<Event> QUEUE_ORDER = new Comparator<Event>(){
+		public int compare(Event a, Event b){
+			return Event.compare(a, b);
+		}
+	};
+
+	/**
+	 * @return returns the earliest key of the given time, see
+	 * {@link Event#compare}
+	 */
+	static Event getFirstKey(long time){
+		Event key = new Event(time);
+		key.source = Integer.MIN_VALUE;
+		key.serialNumber = Long.MIN_VALUE;
+		return key;
+	}
+
+	/**
+	 * A reception passed to the node of another partition, executed in the
+	 * partition of the receiver at the time of the transmission.
+	 */
+	static class Reception extends Event {
+
+		private Node receiver;
+
+		private double strength;
+
+		private Object stream;
+
+		/** True for the end of the reception. */
+		private boolean end;
+
+		/** True if the sender was rolled back and did not send it again. */
+		private boolean cancelled = false;
+
+		/**
+		 * @param sender the key of the event which sent the reception, its 
+		 * time, owner position and serial number are taken over, so the 
+		 * reception is ordered as the call of the receiver in the sender 
+		 * event would be in the {@link Simulator}
+		 */
+		Reception(Event sender, Node receiver, double strength, Object stream, boolean end){
+			super(sender.time);
+			source = sender.source;
+			serialNumber = sender.serialNumber;
+			owner = receiver;
+			this.receiver = receiver;
+			this.strength = strength;
+			this.stream = stream;
+			this.end = end;
+		}
+
+		public void execute(){
+			if( end )
+				receiver.receptionEnd(strength, stream);
+			else
+				receiver.receptionBegin(strength, stream);
+		}
+
+		/**
+		 * @return returns true if the other reception is the same one sent
+		 * again after a rollback
+		 */
+		boolean sameAs(Reception other){
+			return time == other.time && source == other.source && serialNumber == other.serialNumber
+				&& receiver == other.receiver && strength == other.strength
+				&& end == other.end && (stream == null ? other.stream == null : stream.equals(other.stream));
+		}
+
+		public String toString(){
+			return Long.toString(time) + "\tParallelSimulator.Reception\t" + receiver;
+		}
+	}
+
+	/**
+	 * A partition of the nodes, a simulator executing their events in one
+	 * thread at a time.
+	 */
+	static class Partition extends Simulator {
+
+		/** The position of this partition. */
+		final int index;
+
+		/** The nodes of this partition. */
+		final Node[] nodes;
+
+		private long lookahead;
+
+		/** The partitions having links into this one, in increasing order. */
+		int[] senders;
+
+		/**
+		 * The partitions each node has links into, besides this one, by the
+		 * position of the node in the node list, see {@link Node#radioIndex}.
+		 */
+		private int[][] remotePartitions;
+
+		/** 
+		 * The queued radio events of the nodes having links into a 
+		 * partition in the order of the event queue, by partition, null if 
+		 * there are no such nodes. A sorted set, not a priority queue, so a 
+		 * cancelled event is removed in logarithmic time.
+		 */
+		private List<TreeSet<Event>> radioEvents = new ArrayList<TreeSet<Event>>();
+
+		/** The receptions posted in this round, by the receiving partition. */
+		private List<List<Reception>> outboxes = new ArrayList<List<Reception>>();
+
+		/** The event being executed, null between the rounds. */
+		private Event current = null;
+
+		/** 
+		 * The key of the event being executed, or of the last one executed
+		 * between the rounds. It is taken when the event is removed from the
+		 * queue, as the event may add itself again while it runs.
+		 */
+		final Event currentKey = getFirstKey(Long.MIN_VALUE);
+
+		/** 
+		 * The largest key of the events executed, see {@link Event#compare}.
+		 * The events added for the current time may come before the 
+		 * event adding them, so it is not always the {@link #currentKey}.
+		 * Only the receptions after it can be added, see {@link #receive}.
+		 */
+		final Event lastKey = getFirstKey(Long.MIN_VALUE);
+
+		/** This round executes the events before this key, see {@link Event#compare}. */
+		final Event limit = new Event();
+
+		/** The number of receptions received from the other partitions. */
+		long receptionNum = 0;
+
+		/** The event queue of this partition. */
+		private final HeapQueue queue;
+
+		/** True in the optimistic mode, the timers are put into the event queue as well. */
+		boolean optimistic = false;
+
+		/** The state at the beginning of the window, see {@link ParallelSimulator#setOptimistic}. */
+		private PartitionState checkpoint;
+
+		/** The valid receptions received in this window, in the order of their arrival. */
+		private List<Reception> inputs = new ArrayList<Reception>();
+
+		/** The valid receptions sent in this window, by the receiving partition. */
+		private List<List<Reception>> sent = new ArrayList<List<Reception>>();
+
+		/** True if this partition ran in this window already. */
+		private boolean executed;
+
+		/** True if this partition has to be rolled back and run again. */
+		boolean dirty;
+
+		/** True if this partition ran in this iteration, after a rollback if {@link #restored}. */
+		private boolean ran;
+
+		private boolean restored;
+
+		/** The number of rollbacks. */
+		long rollbackNum = 0;
+
+		Partition(int index, int seed, long lookahead, Node[] nodes, int partitionNum){
+			this(new HeapQueue(), index, seed, lookahead, nodes, partitionNum);
+		}
+
+		private Partition(HeapQueue queue, int index, int seed, long lookahead, Node[] nodes, int partitionNum){
+			super(queue, seed);
+			this.queue = queue;
+			this.index = index;
+			this.lookahead = lookahead;
+			this.nodes = nodes;
+			for( int i=0; i<partitionNum; ++i ){
+				radioEvents.add(null);
+				outboxes.add(new ArrayList<Reception>());
+				sent.add(new ArrayList<Reception>());
+			}
+		}
+
+		/**
+		 * @return returns the partitions the node of a radio event has links
+		 * into, besides this one
+		 */
+		private int[] getRemotePartitions(Event e){
+			return remotePartitions[((RadioEventIF)e).getNode().radioIndex];
+		}
+
+		/**
+		 * Checks the lookahead of the radio events.
+		 */
+		public void addEvent( Event e ){
+			if( e instanceof RadioEventIF && e.time - lastEventTime < lookahead )
+				throw new IllegalStateException("A radio event is scheduled " + (e.time - lastEventTime)
+					+ " ahead, less than the lookahead " + lookahead + ": " + e);
+			super.addEvent( e );
+		}
+
+		/**
+		 * Keeps the radio events in the order of the queue.
+		 */
+		void queueEvent( Event e ){
+			if( e instanceof RadioEventIF ){
+				int[] targets = getRemotePartitions(e);
+				for( int i=0; i<targets.length; ++i )
+					radioEvents.get(targets[i]).add(e);
+			}
+			super.queueEvent( e );
+		}
+
+		/**
+		 * The radio events are put into the event queue directly, and in the
+		 * optimistic mode all the others as well, so the timing wheel does
+		 * not have to be rolled back.
+		 */
+		public void addTimerEvent( Event e ){
+			if( optimistic || e instanceof RadioEventIF )
+				addEvent( e );
+			else
+				super.addTimerEvent( e );
+		}
+
+		public boolean cancelEvent( Event e ){
+			boolean queued = super.cancelEvent( e );
+			if( queued && e instanceof RadioEventIF )
+				removeRadioEvent(e);
+			return queued;
+		}
+
+		private void removeRadioEvent(Event e){
+			int[] targets = getRemotePartitions(e);
+			for( int i=0; i<targets.length; ++i )
+				radioEvents.get(targets[i]).remove(e);
+		}
+
+		/**
+		 * @param target the position of another partition
+		 * @return returns the earliest queued radio event of the nodes 
+		 * having links into the partition, or null if there is none
+		 */
+		Event getNextRadioEvent(int target){
+			TreeSet<Event> events = radioEvents.get(target);
+			return events.isEmpty() ? null : events.first();
+		}
+
+		/**
+		 * Copies the key of an event, see {@link Event#compare}.
+		 */
+		static void copyKey(Event from, Event to){
+			to.time = from.time;
+			to.source = from.source;
+			to.serialNumber = from.serialNumber;
+		}
+
+		/**
+		 * Executes the events of this round.
+		 *
+		 * @param tmax the end of the run, the events from this time on are
+		 * not executed
+		 */
+		void runRound(long tmax){
+			while( true ){
+				Event event = eventQueue.getFirst();
+				if( event == null || event.time >= tmax || Event.compare(event, limit) >= 0 )
+					break;
+				eventQueue.getAndRemoveFirst();
+				// the earliest event of all is the earliest radio event as well
+				if( event instanceof RadioEventIF )
+					removeRadioEvent(event);
+				// the slot events of the timing wheel are internal, see Simulator.run
+				if( !(event instanceof TimingWheel.SlotEvent) ){
+					lastEventTime = event.time;
+					if( Event.compare(event, lastKey) > 0 )
+						copyKey(event, lastKey);
+				}
+				current = event;
+				copyKey(event, currentKey);
+				activeNode = event.owner;
+				event.execute();
+			}
+			current = null;
+			activeNode = null;
+		}
+
+		HeapQueue getQueue(){
+			return queue;
+		}
+
+		/**
+		 * Empties the event queue, see {@link PartitionState#restore}.
+		 */
+		void clearQueue(){
+			eventQueue.clear();
+			for( int i=0; i<radioEvents.size(); ++i )
+				if( radioEvents.get(i) != null )
+					radioEvents.get(i).clear();
+		}
+
+		/**
+		 * @return returns the time of the first queued event, or
+		 * Long.MAX_VALUE if there is none
+		 */
+		long getFirstTime(){
+			Event event = eventQueue.getFirst();
+			return event == null ? Long.MAX_VALUE : event.time;
+		}
+
+		/**
+		 * Saves the state at the beginning of a window of the optimistic
+		 * mode. The state of the previous window is dropped, none of its
+		 * events can be rolled back any more.
+		 */
+		void beginWindow(LinkTable table){
+			checkpoint = new PartitionState(this, table);
+			inputs.clear();
+			for( int i=0; i<sent.size(); ++i )
+				sent.get(i).clear();
+			executed = false;
+			dirty = true;
+		}
+
+		/**
+		 * Runs the events of the window, first rolling back to the beginning
+		 * of the window and adding the valid receptions again if a straggler
+		 * or a cancelled reception arrived since the last run.
+		 *
+		 * @param tmax the end of the window
+		 */
+		void runWindow(long tmax, LinkTable table){
+			restored = dirty;
+			if( dirty ){
+				if( executed ){
+					checkpoint.restore(this, table);
+					for( int i=0; i<inputs.size(); ++i )
+						queueEvent(inputs.get(i));
+					++rollbackNum;
+				}
+				executed = true;
+				dirty = false;
+			}
+			limit.time = Long.MAX_VALUE;
+			runRound(tmax);
+			ran = true;
+		}
+
+		/**
+		 * Rolls back to the beginning of the window and forgets the
+		 * receptions of the window, see {@link ParallelSimulator#run}.
+		 */
+		void abortWindow(LinkTable table){
+			checkpoint.restore(this, table);
+			receptionNum -= inputs.size();
+			inputs.clear();
+			for( int i=0; i<sent.size(); ++i ){
+				sent.get(i).clear();
+				outboxes.get(i).clear();
+			}
+			dirty = false;
+			ran = false;
+		}
+
+		/**
+		 * Accepts a reception of the optimistic mode. A reception in the
+		 * past of this partition is a straggler and makes it roll back: one
+		 * before the largest key executed, or one with that key, sent by the
+		 * same event as the receptions executed with it, if other events 
+		 * were executed since. Those were added for the current time by the
+		 * receptions, and they would have come after it.
+		 */
+		void receive(Reception reception){
+			inputs.add(reception);
+			++receptionNum;
+			if( !dirty ){
+				int order = Event.compare(reception, lastKey);
+				if( order < 0 || order == 0 && Event.compare(reception, currentKey) != 0 )
+					dirty = true;
+				else
+					queueEvent(reception);
+			}
+		}
+
+		/**
+		 * Takes back a reception of the optimistic mode, the anti-message.
+		 * If it was executed already this partition rolls back.
+		 */
+		void cancel(Reception reception){
+			reception.cancelled = true;
+			--receptionNum;
+			if( !dirty && !cancelEvent(reception) )
+				dirty = true;
+		}
+
+		/**
+		 * Drops the cancelled receptions from the valid ones.
+		 */
+		void removeCancelled(){
+			int count = 0;
+			for( int i=0; i<inputs.size(); ++i ){
+				Reception reception = inputs.get(i);
+				if( !reception.cancelled )
+					inputs.set(count++, reception);
+			}
+			while( inputs.size() > count )
+				inputs.remove(inputs.size() - 1);
+		}
+
+		/**
+		 * Keeps a reception for the partition of the receiver until the end
+		 * of the round.
+		 */
+		void post(Partition target, Node receiver, double strength, Object stream, boolean end){
+			if( !(current instanceof RadioEventIF) )
+				throw new IllegalStateException("Only a RadioEventIF may begin or end a transmission reaching another partition, not " + current);
+			outboxes.get(target.index).add(new Reception(currentKey, receiver, strength, stream, end));
+		}
+
+		/**
+		 * Adds the receptions posted to this partition in this round to the
+		 * event queue, in the order of the senders.
+		 */
+		void deliver(Partition[] partitions){
+			for( int s=0; s<senders.length; ++s ){
+				List<Reception> inbox = partitions[senders[s]].outboxes.get(index);
+				for( int k=0; k<inbox.size(); ++k ){
+					Reception reception = inbox.get(k);
+					if( Event.compare(reception, lastKey) < 0 )
+						throw new IllegalStateException("A reception arrived in the past of partition " + index
+							+ ": now=" + lastEventTime + " reception=" + reception.time);
+					queueEvent(reception);
+				}
+				receptionNum += inbox.size();
+				inbox.clear();
+			}
+		}
+	}
+
+	/**
+	 * Passes a reception from the partition of the sender to that of the
+	 * receiver, see {@link RadioModel.Neighborhood#beginReception}. Nodes of
+	 * different simulators which are not partitions receive it right away.
+	 *
+	 * @param sender the simulator of the sender node
+	 * @param receiver the receiver node
+	 * @param strength the received radio strength
+	 * @param stream the stream of the transmission
+	 * @param end true for the end of the reception
+	 */
+	static void post(Simulator sender, Node receiver, double strength, Object stream, boolean end){
+		if( sender instanceof Partition && receiver.simulator instanceof Partition )
+			((Partition)sender).post((Partition)receiver.simulator, receiver, strength, stream, end);
+		else if( end )
+			receiver.receptionEnd(strength, stream);
+		else
+			receiver.receptionBegin(strength, stream);
+	}
+
+	/**
+	 * @return returns the lookahead in 1/{@link Simulator#ONE_SECOND} second,
+	 * the least time between the scheduling and the execution of a radio event
+	 */
+	public static int getLookahead(){
+		return Math.min(Mica2Node.sendMinWaitingTime, Mica2Node.sendMinBackOffTime);
+	}
+
+	/**
+	 * Splits the nodes of a simulator into partitions. Call it after the
+	 * neighborhoods were computed, see {@link RadioModel#updateNeighborhoods},
+	 * and before any event is scheduled: from now on the nodes schedule their
+	 * events in their partitions.
+	 *
+	 * @param sim the simulator of the nodes, its generators are continued by
+	 * the first partition
+	 * @param radioModel the radio model of the nodes
+	 * @param partitionNum the number of partitions
+	 */
+	public ParallelSimulator(Simulator sim, RadioModel radioModel, int partitionNum){
+		if( partitionNum < 1 )
+			throw new IllegalArgumentException("At least one partition is needed");
+		if( sim.eventQueue.size() != 0 )
+			throw new IllegalStateException("The nodes must be partitioned before any event is scheduled");
+		lookahead = getLookahead();
+		if( lookahead <= 0 )
+			throw new IllegalStateException("The lookahead must be positive, see Mica2Node.sendMinWaitingTime and sendMinBackOffTime");
+
+		Node[] nodes = RadioModel.getNodes(sim);
+		for( int i=0; i<nodes.length; ++i ){
+			if( nodes[i].radioIndex != i )
+				throw new IllegalStateException("The neighborhoods are not up to date, see RadioModel.updateNeighborhoods");
+		}
+		partitions = new Partition[partitionNum];
+		split(sim, nodes.clone(), 0, nodes.length, 0, partitionNum);
+		findSenders(radioModel, nodes);
+		table = radioModel.getLinkTable();
+	}
+
+	/**
+	 * Splits the nodes into the given number of partitions along the longer
+	 * side of their bounding rectangle, the number of nodes in proportion to
+	 * the number of partitions on both sides.
+	 */
+	private void split(Simulator sim, Node[] nodes, int from, int to, int first, int count){
+		if( count == 1 ){
+			Partition partition = new Partition(first, sim.getSeed() + first, lookahead,
+				Arrays.copyOfRange(nodes, from, to), partitions.length);
+			partition.lastEventTime = sim.lastEventTime;
+			partition.streamSeed = sim.streamSeed;
+			if( first == 0 ){
+				partition.random = sim.random;
+				partition.serialCounter = sim.serialCounter;
+			}
+			for( int i=from; i<to; ++i )
+				nodes[i].simulator = partition;
+			partitions[first] = partition;
+			return;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for( int i=from; i<to; ++i ){
+			minX = Math.min(minX, nodes[i].x);
+			maxX = Math.max(maxX, nodes[i].x);
+			minY = Math.min(minY, nodes[i].y);
+			maxY = Math.max(maxY, nodes[i].y);
+		}
+		final boolean alongX = maxX - minX >= maxY - minY;
+		Arrays.sort(nodes, from, to, new Comparator<Node>(){
+			public int compare(Node a, Node b){
+				return alongX ? Double.compare(a.x, b.x) : Double.compare(a.y, b.y);
+			}
+		});
+		int firstCount = count / 2;
+		int mid = from + (int)((long)(to - from) * firstCount / count);
+		split(sim, nodes, from, mid, first, firstCount);
+		split(sim, nodes, mid, to, first + firstCount, count - firstCount);
+	}
+
+	/**
+	 * Finds the partitions each node has links into, and the partitions 
+	 * having links into each partition.
+	 */
+	private void findSenders(RadioModel radioModel, Node[] nodes){
+		int partitionNum = partitions.length;
+		boolean[][] linked = new boolean[partitionNum][partitionNum];
+		int[][] remotePartitions = new int[nodes.length][];
+		LinkTable table = radioModel.getLinkTable();
+		boolean[] targets = new boolean[partitionNum];
+		for( int i=0; i<nodes.length; ++i ){
+			int sender = ((Partition)nodes[i].simulator).index;
+			Arrays.fill(targets, false);
+			if( table != null ){
+				long end = table.getEndLink(i);
+				for( long k = table.getFirstLink(i); k < end; ++k )
+					targets[((Partition)table.getNode(table.getTarget(k)).simulator).index] = true;
+			}
+			else{
+				Node[] neighbors = radioModel.getNeighbors(nodes[i]);
+				for( int k=0; k<neighbors.length; ++k )
+					targets[((Partition)neighbors[k].simulator).index] = true;
+			}
+			targets[sender] = false;
+			int count = 0;
+			for( int q=0; q<partitionNum; ++q )
+				if( targets[q] )
+					++count;
+			remotePartitions[i] = new int[count];
+			count = 0;
+			for( int q=0; q<partitionNum; ++q ){
+				if( targets[q] ){
+					remotePartitions[i][count++] = q;
+					linked[q][sender] = true;
+				}
+			}
+		}
+		for( int p=0; p<partitionNum; ++p ){
+			partitions[p].remotePartitions = remotePartitions;
+			for( int q=0; q<partitionNum; ++q )
+				if( linked[q][p] )
+					partitions[p].radioEvents.set(q, new TreeSet<Event>(QUEUE_ORDER));
+		}
+		for( int q=0; q<partitionNum; ++q ){
+			int count = 0;
+			for( int p=0; p<partitionNum; ++p )
+				if( p != q && linked[q][p] )
+					++count;
+			int[] senders = new int[count];
+			count = 0;
+			for( int p=0; p<partitionNum; ++p )
+				if( p != q && linked[q][p] )
+					senders[count++] = p;
+			partitions[q].senders = senders;
+		}
+	}
+
+	/**
+	 * @param threadNum the number of threads, 1 runs the partitions one
+	 * after the other in the calling thread
+	 */
+	public void setThreadNum(int threadNum){
+		if( threadNum < 1 )
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.threadNum = threadNum;
+	}
+
+	/**
+	 * Switches the optimistic mode on or off. In the optimistic mode the
+	 * partitions run in windows: every window begins at the global virtual
+	 * time, the time of the earliest queued event of all partitions, when
+	 * every partition saves its state, see {@link PartitionState}. Then the
+	 * partitions run speculatively to the end of the window, without waiting
+	 * for each other, and exchange the receptions they sent. A partition
+	 * which receives a reception in its past, a straggler, or which loses a
+	 * reception it already executed, rolls back to its saved state and runs
+	 * the window again with the valid receptions. A partition running again
+	 * sends its receptions again, the ones equal to those sent before are
+	 * kept, the rest are cancelled by anti-messages, so rollbacks only spread
+	 * as far as the results change. This repeats until no partition rolls
+	 * back; a window which does not settle in time runs conservatively. The
+	 * saved states of the previous window are dropped when the next begins.
+	 * <br>
+	 * The receptions are ordered like those of the conservative mode, so the
+	 * results are the same as in that mode, and do not depend on the window 
+	 * or the number of threads. Every state of the nodes must be
+	 * kept in the fields of the nodes, of their applications and of their
+	 * neighborhoods, and the messages should implement equals. A message 
+	 * must not change after it is sent: the checkpoints and the receptions
+	 * keep it by reference, so a rollback would see the new content. Such 
+	 * applications are not supported, like the 
+	 * {@link net.tinyos.prowler.floodrouting.FloodRouting}, which reuses its
+	 * message and refuses the optimistic mode, see {@link #isOptimistic}. 
+	 * The generators of the partitions must remain
+	 * {@link net.goui.util.UnsynchronizedRandom}s, which are saved with
+	 * their cached normal numbers. Switch it on before any timer is
+	 * scheduled, as the timing wheel cannot be rolled back.
+	 *
+	 * @param optimistic true for the optimistic mode
+	 */
+	public void setOptimistic(boolean optimistic){
+		this.optimistic = optimistic;
+		for( int i=0; i<partitions.length; ++i )
+			partitions[i].optimistic = optimistic;
+	}
+
+	/**
+	 * @param sim a simulator
+	 * @return returns true if the simulator is a partition in the optimistic
+	 * mode, whose events may be rolled back and executed again, see 
+	 * {@link #setOptimistic}
+	 */
+	public static boolean isOptimistic(Simulator sim){
+		return sim instanceof Partition && ((Partition)sim).optimistic;
+	}
+
+	/**
+	 * @param window the length of the windows of the optimistic mode in
+	 * 1/{@link Simulator#ONE_SECOND} second, {@link Simulator#ONE_SECOND}/100
+	 * by default
+	 */
+	public void setWindow(long window){
+		if( window <= 0 )
+			throw new IllegalArgumentException("The window must be positive");
+		this.window = window;
+	}
+
+	/**
+	 * @return returns the number of partitions
+	 */
+	public int getPartitionNum(){
+		return partitions.length;
+	}
+
+	/**
+	 * @param index the position of the partition, from 0
+	 * @return returns the simulator of a partition
+	 */
+	public Simulator getPartition(int index){
+		return partitions[index];
+	}
+
+	/**
+	 * @return returns the time of the latest event executed in any partition
+	 */
+	public long getSimulationTime(){
+		long time = 0;
+		for( int i=0; i<partitions.length; ++i )
+			time = Math.max(time, partitions[i].lastEventTime);
+		return time;
+	}
+
+	/**
+	 * @return returns true if no partition has events
+	 */
+	public boolean endOfSimulation(){
+		for( int i=0; i<partitions.length; ++i )
+			if( !partitions[i].endOfSimulation() )
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return returns the number of rounds run so far
+	 */
+	public long getRoundNum(){
+		return roundNum;
+	}
+
+	/**
+	 * @return returns the number of windows of the optimistic mode run so far
+	 */
+	public long getWindowNum(){
+		return windowNum;
+	}
+
+	/**
+	 * @return returns the number of rollbacks of the partitions so far
+	 */
+	public long getRollbackNum(){
+		long num = 0;
+		for( int i=0; i<partitions.length; ++i )
+			num += partitions[i].rollbackNum;
+		return num;
+	}
+
+	/**
+	 * @return returns the number of windows of the optimistic mode which 
+	 * did not settle and ran conservatively
+	 */
+	public long getFallbackNum(){
+		return fallbackNum;
+	}
+
+	/**
+	 * @return returns the number of receptions passed between the partitions
+	 * so far
+	 */
+	public long getRemoteReceptionNum(){
+		long num = 0;
+		for( int i=0; i<partitions.length; ++i )
+			num += partitions[i].receptionNum;
+		return num;
+	}
+
+	/**
+	 * Runs the partitions for a given amount of time. Unlike
+	 * {@link Simulator#run}, the events from the end time on are not executed.
+	 *
+	 * @param timeInSec the time in seconds until the simulation is to run
+	 * @throws InterruptedException if the thread is interrupted while the
+	 * partitions run
+	 */
+	public void run(double timeInSec) throws InterruptedException{
+		final long tmax = getSimulationTime() + (long)(Simulator.ONE_SECOND * timeInSec);
+		List<Callable<Object>> rounds = new ArrayList<Callable<Object>>();
+		List<Callable<Object>> deliveries = new ArrayList<Callable<Object>>();
+		List<Callable<Object>> windows = new ArrayList<Callable<Object>>();
+		for( int i=0; i<partitions.length; ++i ){
+			final Partition partition = partitions[i];
+			rounds.add(Executors.callable(new Runnable(){
+				public void run(){
+					partition.runRound(end);
+				}
+			}));
+			deliveries.add(Executors.callable(new Runnable(){
+				public void run(){
+					partition.deliver(partitions);
+				}
+			}));
+			windows.add(Executors.callable(new Runnable(){
+				public void run(){
+					partition.runWindow(end, table);
+				}
+			}));
+		}
+
+		int threads = Math.min(threadNum, partitions.length);
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try{
+			if( optimistic )
+				runOptimistic(pool, tmax, windows, rounds, deliveries);
+			else
+				runConservative(pool, tmax, rounds, deliveries);
+		}
+		finally{
+			if( pool != null )
+				pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return returns the time of the earliest queued event of all
+	 * partitions, the global virtual time between the rounds
+	 */
+	private long getFirstTime(){
+		long first = Long.MAX_VALUE;
+		for( int i=0; i<partitions.length; ++i )
+			first = Math.min(first, partitions[i].getFirstTime());
+		return first;
+	}
+
+	/**
+	 * Runs the rounds of the conservative mode until the given time.
+	 */
+	private void runConservative(ExecutorService pool, long tmax, List<Callable<Object>> rounds,
+		List<Callable<Object>> deliveries) throws InterruptedException{
+		end = tmax;
+		while( true ){
+			long first = getFirstTime();
+			if( first >= tmax )
+				break;
+
+			// the earliest key of a radio event scheduled from now on
+			Event scheduled = getFirstKey(first + lookahead);
+			for( int i=0; i<partitions.length; ++i ){
+				Partition partition = partitions[i];
+				Partition.copyKey(scheduled, partition.limit);
+				for( int s=0; s<partition.senders.length; ++s ){
+					// the earliest key the sender may transmit to this partition with
+					Event next = partitions[partition.senders[s]].getNextRadioEvent(i);
+					if( next != null && Event.compare(next, partition.limit) < 0 )
+						Partition.copyKey(next, partition.limit);
+				}
+			}
+
+			invokeAll(pool, rounds);
+			invokeAll(pool, deliveries);
+			++roundNum;
+		}
+	}
+
+	/**
+	 * Runs the windows of the optimistic mode until the given time, see
+	 * {@link #setOptimistic}.
+	 */
+	private void runOptimistic(ExecutorService pool, long tmax, List<Callable<Object>> windows,
+		List<Callable<Object>> rounds, List<Callable<Object>> deliveries) throws InterruptedException{
+		// a message crosses a partition in every iteration at most once, and 
+		// takes at least the lookahead to be answered
+		long maxIterations = 2 * (window / lookahead) + 4;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		while( true ){
+			long gvt = getFirstTime();
+			if( gvt >= tmax )
+				break;
+			long windowEnd = Math.min(tmax, gvt + window);
+			for( int i=0; i<partitions.length; ++i )
+				partitions[i].beginWindow(table);
+			++windowNum;
+
+			end = windowEnd;
+			for( int iteration = 0; ; ++iteration ){
+				tasks.clear();
+				for( int i=0; i<partitions.length; ++i )
+					if( partitions[i].dirty || partitions[i].getFirstTime() < windowEnd )
+						tasks.add(windows.get(i));
+				if( tasks.isEmpty() )
+					break;
+				if( iteration == maxIterations ){
+					for( int i=0; i<partitions.length; ++i )
+						partitions[i].abortWindow(table);
+					runConservative(pool, windowEnd, rounds, deliveries);
+					++fallbackNum;
+					break;
+				}
+				invokeAll(pool, tasks);
+				exchange();
+				++roundNum;
+			}
+		}
+	}
+
+	/**
+	 * Passes the receptions sent in the last iteration of the optimistic
+	 * mode to their partitions, in the order of the partitions. A partition
+	 * which ran again after a rollback sent all its receptions of the window
+	 * again: those equal to the ones sent before are dropped, and the ones
+	 * sent before from the first difference on are cancelled.
+	 */
+	private void exchange(){
+		for( int p=0; p<partitions.length; ++p ){
+			Partition sender = partitions[p];
+			if( !sender.ran )
+				continue;
+			sender.ran = false;
+			for( int q=0; q<partitions.length; ++q ){
+				List<Reception> outbox = sender.outboxes.get(q);
+				List<Reception> sent = sender.sent.get(q);
+				Partition target = partitions[q];
+				// the receptions of a partition which did not roll back are all new
+				int same = 0;
+				if( sender.restored ){
+					while( same < sent.size() && same < outbox.size() && sent.get(same).sameAs(outbox.get(same)) )
+						++same;
+					for( int k = sent.size() - 1; k >= same; --k )
+						target.cancel(sent.remove(k));
+				}
+				for( int k = same; k < outbox.size(); ++k ){
+					Reception reception = outbox.get(k);
+					sent.add(reception);
+					target.receive(reception);
+				}
+				outbox.clear();
+			}
+		}
+		for( int q=0; q<partitions.length; ++q )
+			partitions[q].removeCancelled();
+	}
+
+	/**
+	 * Runs the tasks in the pool, or one after the other if there is no pool,
+	 * and waits until all of them are finished.
+	 */
+	private static void invokeAll(ExecutorService pool, List<Callable<Object>> tasks) throws InterruptedException{
+		if( pool == null ){
+			for( int i=0; i<tasks.size(); ++i ){
+				try{
+					tasks.get(i).call();
+				}
+				catch(RuntimeException e){
+					throw e;
+				}
+				catch(Exception e){
+					throw new IllegalStateException(e);
+				}
+			}
+			return;
+		}
+		for( Future<Object> result : pool.invokeAll(tasks) ){
+			try{
+				result.get();
+			}
+			catch(ExecutionException e){
+				if( e.getCause() instanceof RuntimeException )
+					throw (RuntimeException)e.getCause();
+				if( e.getCause() instanceof Error )
+					throw (Error)e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package net.tinyos.prowler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.goui.util.StatKeeper;
+
+/**
+ * Runs an experiment for every combination of the values of its parameters,
+ * the cells of the grid, with a number of replications each. All the 
+ * replications of all the cells are run on a fixed pool of threads. 
+ * Replication i of every cell gets the seed baseSeed + i, as in the 
+ * {@link ReplicationRunner}. <br>
+ * The results are written to a file, one line for every cell, as soon as 
+ * all the replications of the cell are finished. The lines hold the 
+ * parameter values, the number of replications, and the mean and the 
+ * standard deviation of every measured value, separated by semicolons, and
+ * end with a semicolon, so a line cut off by a crash is recognized. If the 
+ * file already exists, for example because an earlier sweep crashed, the 
+ * cells found in it are not run again and the new lines are appended.
+ */
+public class ParameterSweep {
+
+	/** The separator of the columns of the result file. */
+	public static final String SEPARATOR = ";";
+
+	/** The names of the parameters. */
+	private List<String> names = new ArrayList<String>();
+
+	/** The values of the parameters. */
+	private List<String[]> values = new ArrayList<String[]>();
+
+	/** The names of the measured values. */
+	private String[] statNames;
+
+	/** The number of replications of every cell. */
+	private int replicationNum = 1;
+
+	/** The number of threads running the replications. */
+	private int threadNum = Runtime.getRuntime().availableProcessors();
+
+	/** The seed of the first replication of every cell. */
+	private int baseSeed = Simulator.DEFAULT_SEED;
+
+	/**
+	 * @param statNames the names of the values returned by the replications
+	 */
+	public ParameterSweep(String[] statNames){
+		this.statNames = statNames;
+	}
+
+	/**
+	 * Adds a parameter to the grid. The first parameter changes the slowest
+	 * from one cell to the next.
+	 * 
+	 * @param name the name of the parameter
+	 * @param parameterValues the values of the parameter
+	 */
+	public void addParameter(String name, String[] parameterValues){
+		if( names.contains(name) )
+			throw new IllegalArgumentException("The parameter is already added: " + name);
+		if( parameterValues.length == 0 )
+			throw new IllegalArgumentException("The parameter has no values: " + name);
+		names.add(name);
+		values.add(parameterValues.clone());
+	}
+
+	/**
+	 * Adds a parameter with the integer values from, from+step, ... up to to.
+	 */
+	public void addParameter(String name, int from, int to, int step){
+		List<String> range = new ArrayList<String>();
+		for( int value=from; value<=to; value+=step )
+			range.add(Integer.toString(value));
+		addParameter(name, range.toArray(new String[range.size()]));
+	}
+
+	/**
+	 * @param replicationNum the number of replications of every cell, the
+	 * cells of a continued result file with another number are run again
+	 */
+	public void setReplicationNum(int replicationNum){
+		this.replicationNum = replicationNum;
+	}
+
+	/**
+	 * @param threadNum the number of threads
+	 */
+	public void setThreadNum(int threadNum){
+		if( threadNum < 1 )
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.threadNum = threadNum;
+	}
+
+	/**
+	 * @param baseSeed the seed of the first replication of every cell
+	 */
+	public void setBaseSeed(int baseSeed){
+		this.baseSeed = baseSeed;
+	}
+
+	/**
+	 * @return returns every cell of the grid, in the order they are run
+	 */
+	public List<Map<String, String>> getCells(){
+		List<Map<String, String>> cells = new ArrayList<Map<String, String>>();
+		int[] index = new int[names.size()];
+		while( true ){
+			Map<String, String> cell = new LinkedHashMap<String, String>();
+			for( int i=0; i<index.length; ++i )
+				cell.put(names.get(i), values.get(i)[index[i]]);
+			cells.add(cell);
+
+			int i = index.length - 1;
+			while( i >= 0 && ++index[i] == values.get(i).length ){
+				index[i] = 0;
+				--i;
+			}
+			if( i < 0 )
+				return cells;
+		}
+	}
+
+	/**
+	 * @return returns the header line of the result file
+	 */
+	String header(){
+		StringBuilder line = new StringBuilder();
+		for( String name : names )
+			line.append(name).append(SEPARATOR);
+		line.append("replications");
+		for( String statName : statNames )
+			line.append(SEPARATOR).append(statName).append(".mean").append(SEPARATOR).append(statName).append(".sdev");
+		return line.toString();
+	}
+
+	/**
+	 * @return returns the parameter values of a cell as they start its line
+	 */
+	private String key(Map<String, String> cell){
+		StringBuilder line = new StringBuilder();
+		for( String name : names )
+			line.append(cell.get(name)).append(SEPARATOR);
+		return line.toString();
+	}
+
+	/**
+	 * @return returns true if a line of the result file is complete, that is
+	 * it has every column, ends with the separator, its numbers parse, and it
+	 * has as many replications as this sweep. Other lines are run again.
+	 */
+	private boolean isComplete(String line){
+		if( !line.endsWith(SEPARATOR) )
+			return false;
+		String[] columns = line.split(SEPARATOR, -1);
+		// the empty column after the terminating separator
+		if( columns.length != names.size() + 2 + 2 * statNames.length )
+			return false;
+		try{
+			if( Integer.parseInt(columns[names.size()]) != replicationNum )
+				return false;
+			for( int i=names.size()+1; i<columns.length-1; ++i )
+				Double.parseDouble(columns[i]);
+		}
+		catch(NumberFormatException e){
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the cells which are finished already and rewrites the file with
+	 * their lines only, dropping a line cut off by a crash. The new file is
+	 * written beside the old one and moved over it atomically.
+	 * 
+	 * @return returns the keys of the finished cells
+	 */
+	private Set<String> readFinishedCells(File file) throws IOException{
+		Set<String> finished = new HashSet<String>();
+		if( !file.exists() )
+			return finished;
+
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try{
+			String line = reader.readLine();
+			if( line == null )
+				return finished;
+			if( !line.equals(header()) )
+				throw new IllegalStateException("The result file " + file + " belongs to a different sweep");
+			while( (line = reader.readLine()) != null ){
+				if( !isComplete(line) )
+					continue;
+				lines.add(line);
+				finished.add(line.substring(0, nthSeparator(line, names.size()) + 1));
+			}
+		}
+		finally{
+			reader.close();
+		}
+
+		// a crash while rewriting must not lose the finished cells
+		File temp = File.createTempFile("sweep", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		try{
+			PrintWriter writer = new PrintWriter(new FileWriter(temp));
+			writer.println(header());
+			for( String line : lines )
+				writer.println(line);
+			writer.close();
+			if( writer.checkError() )
+				throw new IOException("The result file " + temp + " cannot be written");
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			written = true;
+		}
+		finally{
+			if( !written )
+				temp.delete();
+		}
+		return finished;
+	}
+
+	private static int nthSeparator(String line, int n){
+		int pos = -1;
+		for( int i=0; i<n; ++i )
+			pos = line.indexOf(SEPARATOR, pos + 1);
+		return pos;
+	}
+
+	/**
+	 * Runs the replications of every cell which is not in the result file yet.
+	 * 
+	 * @param experiment the experiment
+	 * @param fileName the result file, it is created or continued
+	 * @return returns the number of cells run
+	 * @throws Exception the first exception thrown by a replication, in the 
+	 * order of the cells and replications
+	 */
+	public int run(final SweepIF experiment, String fileName) throws Exception{
+		File file = new File(fileName);
+		Set<String> finished = readFinishedCells(file);
+		boolean newFile = !file.exists() || file.length() == 0;
+		final PrintWriter writer = new PrintWriter(new FileWriter(file, true));
+		if( newFile ){
+			writer.println(header());
+			writer.flush();
+		}
+
+		List<Map<String, String>> cells = new ArrayList<Map<String, String>>();
+		for( Map<String, String> cell : getCells() ){
+			if( !finished.contains(key(cell)) )
+				cells.add(cell);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threadNum);
+		try{
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for( Map<String, String> cell : cells ){
+				final CellResult cellResult = new CellResult(cell);
+				for( int i=0; i<replicationNum; ++i ){
+					final int replication = i;
+					results.add(pool.submit(new Callable<Object>(){
+						public Object call() throws Exception{
+							double[] result = experiment.runReplication(cellResult.cell, replication, baseSeed + replication);
+							cellResult.done(replication, result, writer);
+							return null;
+						}
+					}));
+				}
+			}
+			for( Future<?> result : results ){
+				try{
+					result.get();
+				}
+				catch(ExecutionException e){
+					if( e.getCause() instanceof Exception )
+						throw (Exception)e.getCause();
+					throw e;
+				}
+			}
+			return cells.size();
+		}
+		finally{
+			pool.shutdownNow();
+			writer.close();
+		}
+	}
+
+	/**
+	 * Collects the results of the replications of a cell and writes its line
+	 * when all of them are finished.
+	 */
+	class CellResult {
+
+		Map<String, String> cell;
+
+		double[][] results = new double[replicationNum][];
+
+		int doneNum = 0;
+
+		CellResult(Map<String, String> cell){
+			this.cell = cell;
+		}
+
+		synchronized void done(int replication, double[] result, PrintWriter writer){
+			if( result.length != statNames.length )
+				throw new IllegalStateException("Replication " + replication + " of " + cell + " returned " 
+					+ result.length + " values instead of " + statNames.length);
+			results[replication] = result;
+			if( ++doneNum < replicationNum )
+				return;
+
+			// in the order of the replications, like the ReplicationRunner
+			StatKeeper[] stats = new StatKeeper[statNames.length];
+			for( int j=0; j<statNames.length; ++j )
+				stats[j] = new StatKeeper(false, statNames[j]);
+			for( int i=0; i<replicationNum; ++i ){
+				for( int j=0; j<statNames.length; ++j )
+					stats[j].add(results[i][j]);
+			}
+
+			StringBuilder line = new StringBuilder(key(cell));
+			line.append(replicationNum);
+			for( StatKeeper stat : stats ){
+				double sdev = replicationNum > 1 ? stat.sdev() : 0.0;
+				line.append(SEPARATOR).append(stat.mean()).append(SEPARATOR).append(sdev);
+			}
+			line.append(SEPARATOR);
+			synchronized(writer){
+				writer.println(line);
+				writer.flush();
+			}
+		}
+	}
+}
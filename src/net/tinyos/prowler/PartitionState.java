@@ -0,0 +1,262 @@
+package net.tinyos.prowler;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.goui.util.SplitRandom;
+import net.goui.util.UnsynchronizedRandom;
+
+/**
+ * A checkpoint of a {@link ParallelSimulator.Partition}, the optimistic mode
+ * of the {@link ParallelSimulator} rolls a partition back to it. It keeps
+ * the fields of the nodes, of their applications and of their neighborhoods,
+ * the dynamic strengths of their links in the {@link LinkTable}, the queued
+ * events with their times, owners and serial numbers, the time, the keys of
+ * the last and of the largest event executed, the serial counter
+ * and the states of the random generators. The fields are read by
+ * reflection, from the class of the object up to {@link Node},
+ * {@link Application} and {@link RadioModel.Neighborhood}; static and final
+ * fields are skipped. Primitive arrays are copied and the states of
+ * {@link SplitRandom} streams and {@link UnsynchronizedRandom} generators
+ * are saved, the latter with the cached normal number by a clone, see
+ * {@link UnsynchronizedRandom#setState}. Every other object, like a message,
+ * is kept by reference and must not be changed after it is created, see
+ * {@link ParallelSimulator#setOptimistic}.
+ */
+class PartitionState {
+
+	/** The saved fields by class, shared by the threads. */
+	private static final ConcurrentHashMap<Class<?>, Field[]> fieldCache = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	/** The saved nodes, applications and neighborhoods. */
+	private Object[] objects;
+
+	/** The values of their fields, primitive arrays are copied, streams and generators are saved by their states. */
+	private Object[][] values;
+
+	/** The primitive arrays, streams and generators referenced by the fields at the time of saving. */
+	private Object[][] arrays;
+
+	/** The dynamic strengths of the links of the nodes, or null. */
+	private double[] linkValues;
+
+	/** The queued events, in the order of their insertion. */
+	private Event[] events;
+
+	private long[] eventTimes;
+
+	private long[] serialNumbers;
+
+	private int[] sources;
+
+	private Node[] owners;
+
+	private long lastEventTime;
+
+	private Event lastKey = new Event();
+
+	private Event currentKey = new Event();
+
+	private long serialCounter;
+
+	/** A copy of the {@link Simulator#random}, with its cached normal number. */
+	private UnsynchronizedRandom random;
+
+
+	/**
+	 * Saves the state of a partition.
+	 *
+	 * @param partition the partition
+	 * @param table the link table of the radio model, or null
+	 */
+	PartitionState(ParallelSimulator.Partition partition, LinkTable table){
+		if( !(partition.random instanceof UnsynchronizedRandom) )
+			throw new IllegalStateException("Only an UnsynchronizedRandom can be saved, not " + partition.random.getClass().getName());
+
+		List<Object> list = new ArrayList<Object>();
+		for( int i=0; i<partition.nodes.length; ++i ){
+			Node node = partition.nodes[i];
+			list.add(node);
+			list.add(node.getNeighborhood());
+			for( Application app = node.firstApplication; app != null; app = app.nextApplication )
+				list.add(app);
+		}
+		objects = list.toArray();
+		values = new Object[objects.length][];
+		arrays = new Object[objects.length][];
+		try{
+			for( int i=0; i<objects.length; ++i ){
+				Field[] fields = getFields(objects[i].getClass());
+				Object[] saved = new Object[fields.length];
+				Object[] referenced = null;
+				for( int k=0; k<fields.length; ++k ){
+					Object value = fields[k].get(objects[i]);
+					boolean stream = value instanceof SplitRandom;
+					boolean generator = value instanceof UnsynchronizedRandom;
+					if( stream || generator || value != null && value.getClass().getComponentType() != null
+						&& value.getClass().getComponentType().isPrimitive() ){
+						if( referenced == null )
+							referenced = new Object[fields.length];
+						referenced[k] = value;
+						value = stream ? (Object)((SplitRandom)value).getState()
+							: generator ? ((UnsynchronizedRandom)value).clone() : copy(value);
+					}
+					saved[k] = value;
+				}
+				values[i] = saved;
+				arrays[i] = referenced;
+			}
+		}
+		catch(IllegalAccessException e){
+			throw new IllegalStateException(e);
+		}
+
+		if( table != null ){
+			int count = 0;
+			for( int i=0; i<partition.nodes.length; ++i ){
+				int row = partition.nodes[i].radioIndex;
+				count += (int)(table.getEndLink(row) - table.getFirstLink(row));
+			}
+			linkValues = new double[count];
+			count = 0;
+			for( int i=0; i<partition.nodes.length; ++i ){
+				int row = partition.nodes[i].radioIndex;
+				long end = table.getEndLink(row);
+				for( long k = table.getFirstLink(row); k < end; ++k )
+					linkValues[count++] = table.getDynamicStrength(k);
+			}
+		}
+
+		events = partition.getQueue().getEvents();
+		Arrays.sort(events, new Comparator<Event>(){
+			public int compare(Event a, Event b){
+				return Long.compare(a.queueOrder, b.queueOrder);
+			}
+		});
+		eventTimes = new long[events.length];
+		serialNumbers = new long[events.length];
+		sources = new int[events.length];
+		owners = new Node[events.length];
+		for( int i=0; i<events.length; ++i ){
+			if( events[i] instanceof TimingWheel.SlotEvent )
+				throw new IllegalStateException("The timing wheel cannot be rolled back, schedule the timers after the optimistic mode is set");
+			eventTimes[i] = events[i].time;
+			serialNumbers[i] = events[i].serialNumber;
+			sources[i] = events[i].source;
+			owners[i] = events[i].owner;
+		}
+		lastEventTime = partition.lastEventTime;
+		ParallelSimulator.Partition.copyKey(partition.lastKey, lastKey);
+		ParallelSimulator.Partition.copyKey(partition.currentKey, currentKey);
+		serialCounter = partition.serialCounter;
+		random = ((UnsynchronizedRandom)partition.random).clone();
+	}
+
+	/**
+	 * Rolls a partition back to this state. The queue is refilled with the
+	 * saved events, so the receptions which arrived since are not there.
+	 *
+	 * @param partition the partition the state was saved from
+	 * @param table the link table of the radio model, or null
+	 */
+	void restore(ParallelSimulator.Partition partition, LinkTable table){
+		try{
+			for( int i=0; i<objects.length; ++i ){
+				Field[] fields = getFields(objects[i].getClass());
+				Object[] saved = values[i];
+				Object[] referenced = arrays[i];
+				for( int k=0; k<fields.length; ++k ){
+					Object value = saved[k];
+					if( referenced != null && referenced[k] instanceof SplitRandom ){
+						SplitRandom stream = (SplitRandom)referenced[k];
+						stream.setState((Long)value);
+						fields[k].set(objects[i], stream);
+						continue;
+					}
+					if( referenced != null && referenced[k] instanceof UnsynchronizedRandom ){
+						UnsynchronizedRandom generator = (UnsynchronizedRandom)referenced[k];
+						generator.setState((UnsynchronizedRandom)value);
+						fields[k].set(objects[i], generator);
+						continue;
+					}
+					if( referenced != null && referenced[k] != null ){
+						// copy back into the array if it was not replaced, to spare the memory
+						Object current = fields[k].get(objects[i]);
+						if( current == referenced[k] ){
+							System.arraycopy(value, 0, current, 0, java.lang.reflect.Array.getLength(value));
+							continue;
+						}
+						value = copy(value);
+					}
+					fields[k].set(objects[i], value);
+				}
+			}
+		}
+		catch(IllegalAccessException e){
+			throw new IllegalStateException(e);
+		}
+
+		if( linkValues != null ){
+			int count = 0;
+			for( int i=0; i<partition.nodes.length; ++i ){
+				int row = partition.nodes[i].radioIndex;
+				long end = table.getEndLink(row);
+				for( long k = table.getFirstLink(row); k < end; ++k )
+					table.setDynamicStrength(k, linkValues[count++]);
+			}
+		}
+
+		partition.lastEventTime = lastEventTime;
+		ParallelSimulator.Partition.copyKey(lastKey, partition.lastKey);
+		ParallelSimulator.Partition.copyKey(currentKey, partition.currentKey);
+		partition.serialCounter = serialCounter;
+		((UnsynchronizedRandom)partition.random).setState(random);
+		partition.clearQueue();
+		for( int i=0; i<events.length; ++i ){
+			events[i].time = eventTimes[i];
+			events[i].serialNumber = serialNumbers[i];
+			events[i].source = sources[i];
+			events[i].owner = owners[i];
+			partition.queueEvent(events[i]);
+		}
+	}
+
+	/**
+	 * @return returns a copy of a primitive array
+	 */
+	private static Object copy(Object array){
+		int length = java.lang.reflect.Array.getLength(array);
+		Object result = java.lang.reflect.Array.newInstance(array.getClass().getComponentType(), length);
+		System.arraycopy(array, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * @return returns the saved fields of a class, see {@link PartitionState}
+	 */
+	private static Field[] getFields(Class<?> type){
+		Field[] fields = fieldCache.get(type);
+		if( fields == null ){
+			List<Field> list = new ArrayList<Field>();
+			for( Class<?> c = type; c != null; c = c.getSuperclass() ){
+				for( Field field : c.getDeclaredFields() ){
+					int modifiers = field.getModifiers();
+					if( Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic() )
+						continue;
+					field.setAccessible(true);
+					list.add(field);
+				}
+				if( c == Node.class || c == Application.class || c == RadioModel.Neighborhood.class )
+					break;
+			}
+			fields = list.toArray(new Field[list.size()]);
+			fieldCache.put(type, fields);
+		}
+		return fields;
+	}
+}
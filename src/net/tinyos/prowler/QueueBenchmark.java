@@ -0,0 +1,180 @@
+package net.tinyos.prowler;
+
+/**
+ * Compares the {@link EventQueue} implementations on the broadcast experiment
+ * of the {@link TestBroadcastNode}. The motes are deployed with the same
+ * density as in {@link TestBroadcastNode#main}, so the field grows with the
+ * number of motes. Only the time of the simulation run is measured, the set
+ * up of the mote field is the same for all queues. Every queue must execute
+ * the same events, so the number of events and the end of the simulation are
+ * printed as well. Before the runs every queue is checked to execute the
+ * right events when events are cancelled and rescheduled. <br>
+ * Usage: QueueBenchmark [nodeNum ...], by default 1000, 10000 and 100000
+ * motes are simulated.
+ */
+public class QueueBenchmark {
+
+	/**
+	 * Counts the events taken out of the queue it wraps.
+	 */
+	static class CountingQueue implements EventQueue {
+
+		EventQueue queue;
+
+		long count = 0;
+
+		CountingQueue(EventQueue queue){
+			this.queue = queue;
+		}
+
+		public int size(){
+			return queue.size();
+		}
+
+		public void add(Event event){
+			queue.add(event);
+		}
+
+		public Event first(){
+			return queue.first();
+		}
+
+		public Event getAndRemoveFirst(){
+			Event first = queue.getAndRemoveFirst();
+			if( first != null )
+				count++;
+			return first;
+		}
+
+		public boolean cancel(Event event){
+			return queue.cancel(event);
+		}
+
+		public void clear(){
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Records its name when it is executed.
+	 */
+	static class RecordingEvent extends Event {
+
+		String name;
+
+		StringBuilder executed;
+
+		RecordingEvent(long time, String name, StringBuilder executed){
+			super(time);
+			this.name = name;
+			this.executed = executed;
+		}
+
+		public void execute(){
+			executed.append(name).append(' ');
+		}
+	}
+
+	/**
+	 * Cancels and reschedules events of the event queue and of the timing
+	 * wheel, also from a running event, and checks which events run and in
+	 * what order.
+	 *
+	 * @param queue the queue used by the simulator
+	 * @param batchDispatch see {@link Simulator#setBatchDispatch}
+	 */
+	static void checkCancel(EventQueue queue, boolean batchDispatch){
+		final Simulator sim = new Simulator(queue, 1234);
+		sim.setBatchDispatch(batchDispatch);
+		StringBuilder executed = new StringBuilder();
+		final RecordingEvent[] events = new RecordingEvent[10];
+		for( int i=0; i<events.length; ++i )
+			events[i] = new RecordingEvent(100 * (i + 1), "e" + i, executed);
+		events[0] = new RecordingEvent(100, "e0", executed){
+			public void execute(){
+				super.execute();
+				if( !sim.cancelEvent(events[9]) )
+					throw new IllegalStateException("e9 is not queued");
+			}
+		};
+		for( int i=0; i<events.length; ++i )
+			sim.addEvent(events[i]);
+		RecordingEvent timer = new RecordingEvent(3 * Simulator.ONE_SECOND, "t0", executed);
+		RecordingEvent movedTimer = new RecordingEvent(3 * Simulator.ONE_SECOND, "t1", executed);
+		sim.addTimerEvent(timer);
+		sim.addTimerEvent(movedTimer);
+
+		sim.cancelEvent(events[2]);
+		if( sim.cancelEvent(events[2]) || events[2].isQueued() )
+			throw new IllegalStateException("e2 is still queued");
+		sim.cancelEvent(events[7]);
+		sim.reschedule(events[3], 50);
+		sim.reschedule(events[5], 950);
+		// the same time as e4, but added later
+		sim.reschedule(events[8], 500);
+		if( !sim.cancelEvent(timer) )
+			throw new IllegalStateException("t0 is not queued");
+		sim.reschedule(movedTimer, 2 * Simulator.ONE_SECOND);
+		sim.run(10);
+
+		String expected = "e3 e0 e1 e4 e8 e6 e5 t1 ";
+		if( !executed.toString().equals(expected) )
+			throw new IllegalStateException(queue.getClass().getSimpleName() + " executed " + executed
+				+ "instead of " + expected);
+	}
+
+	/**
+	 * Runs the broadcast experiment once.
+	 *
+	 * @param queue the queue used by the simulator
+	 * @param nodeNum the number of motes
+	 * @throws Exception see {@link Simulator#createNodes}
+	 */
+	static void run(EventQueue queue, int nodeNum) throws Exception{
+		CountingQueue countingQueue = new CountingQueue(queue);
+		Simulator sim = new Simulator(countingQueue, 1234);
+		GaussianRadioModel radioModel = new GaussianRadioModel(sim);
+
+		double areaWidth = 300 * Math.sqrt(nodeNum / 1000.0);
+		TestBroadcastNode root = (TestBroadcastNode)sim.createNode( TestBroadcastNode.class, radioModel, 1, areaWidth/2, areaWidth/2, 0);
+		TestBroadcastNode.BroadcastApplication bcApp = root.new BroadcastApplication(root);
+		Node tempNode = sim.createNodes( TestBroadcastNode.class, radioModel, 2, nodeNum-1, areaWidth, 5);
+		while (tempNode != null){
+			((TestBroadcastNode)tempNode).new BroadcastApplication(tempNode);
+			tempNode = tempNode.nextNode;
+		}
+		radioModel.updateNeighborhoods();
+
+		root.sendMessage( "test message", bcApp );
+		long time0 = System.currentTimeMillis();
+		sim.run(20000);
+		long time = Math.max(1, System.currentTimeMillis() - time0);
+
+		System.out.println(nodeNum + "\t" + queue.getClass().getSimpleName() + "\t" + countingQueue.count
+			+ "\t" + sim.getSimulationTime() + "\t" + time + "\t" + (1000 * countingQueue.count / time));
+	}
+
+	public static void main(String[] args) throws Exception{
+		int[] nodeNums = { 1000, 10000, 100000 };
+		if( args.length > 0 ){
+			nodeNums = new int[args.length];
+			for( int i=0; i<args.length; ++i )
+				nodeNums[i] = Integer.parseInt(args[i]);
+		}
+
+		EventQueue[] queues = { new SimpleQeue(), new HeapQueue(), new CalendarQueue() };
+		for( int i=0; i<queues.length; ++i ){
+			checkCancel(queues[i], false);
+			queues[i].clear();
+			checkCancel(queues[i], true);
+			queues[i].clear();
+		}
+
+		System.out.println("motes\tqueue\tevents\tend time\tmillisecs\tevents/sec");
+		for( int i=0; i<nodeNums.length; ++i ){
+			run(new SimpleQeue(), nodeNums[i]);
+			run(new HeapQueue(), nodeNums[i]);
+			run(new CalendarQueue(), nodeNums[i]);
+		}
+	}
+}
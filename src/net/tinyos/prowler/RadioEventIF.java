@@ -0,0 +1,17 @@
+package net.tinyos.prowler;
+
+/**
+ * Marks the events which may begin or end a radio transmission when they are
+ * executed, like the channel test and the end of a transmission of the
+ * {@link Mica2Node}. The {@link ParallelSimulator} keeps track of these
+ * events of the nodes having links into other partitions. A radio event must
+ * be scheduled at least {@link ParallelSimulator#getLookahead} ahead of the
+ * current time, and no other event may begin or end a transmission.
+ */
+public interface RadioEventIF {
+
+	/**
+	 * @return returns the node whose transmission this event may begin or end
+	 */
+	public Node getNode();
+}
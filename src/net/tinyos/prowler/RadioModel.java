@@ -24,6 +24,17 @@
 
 package net.tinyos.prowler;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.goui.util.Ziggurat;
+
 /**
  * This class is the abstract baseclass of all radio models.
  * Radio models describe the radio propagation in space by
@@ -33,6 +44,25 @@ package net.tinyos.prowler;
  * @author Gabor Pap, Gyorgy Balogh, Miklos Maroti
  */
 public abstract class RadioModel{
+	/**
+	 * The exhibitor of the radio signal degradation, typically it is 2/2 if the
+	 * motes are well above ground, though at ground level this factor is 
+	 * closer to 3/2. For efficiency reasons, this number is the half of the
+	 * usually defined falling factor.
+	 */ 
+	public double fallingFactorHalf = 1.1;
+
+	/**
+	 * If true the attenuation of the static fading is computed by an 
+	 * {@link AttenuationTable} instead of {@link Math#pow}, which makes the 
+	 * neighborhood search faster. The static fadings differ by a relative 
+	 * error of about 10^-9, so a link at the cutoff may be lost or gained.
+	 */
+	public boolean fastAttenuation = false;
+
+	/** The table of the {@link #fastAttenuation}, created on demand. */
+	private AttenuationTable attenuationTable = null;
+
 	/**
 	 * Radio models must implement this method to create
 	 * a radio model dependent Neighborhood object. 
@@ -53,6 +83,635 @@ public abstract class RadioModel{
 	 * be used sparsely.
 	 */
 	public abstract void updateNeighborhoods();
+
+	/**
+	 * Calculates the distance beyond which no node can be a neighbor of a 
+	 * sender. The neighborhood search of {@link #buildNeighborhoods} only 
+	 * examines the nodes within this distance.
+	 * 
+	 * @param maxStrength the largest maximum radio strength of the nodes
+	 * @return the maximum range, infinite if it is not limited
+	 */
+	protected double getMaximumRange(double maxStrength){
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Calculates the distance where a signal attenuated by 
+	 * 1 + {@link #getAttenuation} falls to the cutoff, the common 
+	 * {@link #getMaximumRange} of the models.
+	 * 
+	 * @param maxFading the largest static fading of a link at distance 0, 
+	 * times the attenuation at that distance, which is 1
+	 * @param cutoff the smallest static fading of a neighbor
+	 * @return the maximum range, infinite if it is not limited
+	 */
+	protected double getAttenuationRange(double maxFading, double cutoff){
+		if( fallingFactorHalf <= 0.0 || cutoff <= 0.0 )
+			return Double.POSITIVE_INFINITY;
+		double ratio = maxFading / cutoff - 1.0;
+		if( ratio <= 0.0 )
+			return 0.0;
+		return Math.sqrt(Math.pow(ratio, 1.0 / fallingFactorHalf));
+	}
+
+	/**
+	 * Calculates the attenuation of the signal over a distance, the squared 
+	 * distance to the power of the {@link #fallingFactorHalf}.
+	 * 
+	 * @param distanceSquare the squared distance
+	 * @return the attenuation, see {@link #fastAttenuation}
+	 */
+	protected double getAttenuation(double distanceSquare){
+		if( !fastAttenuation )
+			return Math.pow(distanceSquare, fallingFactorHalf);
+		AttenuationTable table = attenuationTable;
+		if( table == null || table.getExponent() != fallingFactorHalf ){
+			table = new AttenuationTable(fallingFactorHalf);
+			attenuationTable = table;
+		}
+		return table.pow(distanceSquare);
+	}
+
+	/**
+	 * Calculates the static fading of a link for {@link #buildNeighborhoods}. 
+	 * 
+	 * @param sender the sender node
+	 * @param senderIndex the position of the sender in the node list
+	 * @param receiver the receiver node
+	 * @param receiverIndex the position of the receiver in the node list
+	 * @return the static fading, the receiver is a neighbor if it is not less
+	 * than the cutoff
+	 */
+	protected double getLinkFading(Node sender, int senderIndex, Node receiver, int receiverIndex){
+		return 0.0;
+	}
+
+	/**
+	 * Stores the neighbors found by {@link #buildNeighborhoods} in the
+	 * neighborhood of a node.
+	 * 
+	 * @param node the sender node
+	 * @param neighbors the neighbors in the order of the node list
+	 * @param staticFadings the static fading of each neighbor
+	 */
+	protected abstract void setNeighbors(Node node, Node[] neighbors, double[] staticFadings);
+
+	/**
+	 * Returns the current neighbors of a node, used by {@link #nodeMoved}.
+	 * It is not called if the neighborhoods are stored in the 
+	 * {@link #linkTable}.
+	 * 
+	 * @param node the sender node
+	 * @return the neighbors in the order of the node list
+	 */
+	protected abstract Node[] getNeighbors(Node node);
+
+	/**
+	 * Returns the static fadings of the current neighbors of a node, used by 
+	 * {@link #nodeMoved}.
+	 * 
+	 * @param node the sender node
+	 * @return the static fading of each neighbor
+	 */
+	protected abstract double[] getStaticFadings(Node node);
+
+	/**
+	 * @return returns the nodes of the simulator in the order of its node list
+	 */
+	protected static Node[] getNodes(Simulator sim){
+		int nodeNum = 0;
+		for( Node node = sim.firstNode; node != null; node = node.nextNode )
+			++nodeNum;
+		Node[] nodes = new Node[nodeNum];
+		int i = 0;
+		for( Node node = sim.firstNode; node != null; node = node.nextNode )
+			nodes[i++] = node;
+		return nodes;
+	}
+
+	/**
+	 * The number of threads {@link #buildNeighborhoods} uses, see 
+	 * {@link #setParallelism}.
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Sets the number of threads computing the neighborhoods. With more than
+	 * one thread every node's neighborhood is computed independently on a 
+	 * fork-join pool, so {@link #getLinkFading} and {@link #setNeighbors} 
+	 * must not change any state shared between the nodes. The result does not
+	 * depend on the number of threads.
+	 * 
+	 * @param parallelism the number of threads, 1 by default
+	 */
+	public void setParallelism(int parallelism){
+		if( parallelism < 1 )
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return returns the number of threads computing the neighborhoods
+	 */
+	public int getParallelism(){
+		return parallelism;
+	}
+
+	/**
+	 * Whether the neighborhoods are stored in a {@link LinkTable}, see 
+	 * {@link #setCompactStorage}.
+	 */
+	private boolean compactStorage = false;
+
+	/**
+	 * The neighborhoods of the whole network if they are stored compactly, 
+	 * otherwise null.
+	 */
+	protected LinkTable linkTable = null;
+
+	/**
+	 * Sets whether the neighborhoods are stored in one {@link LinkTable} for
+	 * the whole network instead of the arrays of every neighborhood. It 
+	 * needs much less memory for large fields, the simulation is the same.
+	 * {@link #nodeMoved} has to compute every neighborhood again in this case.
+	 * It takes effect at the next {@link #updateNeighborhoods}, so set it 
+	 * before the first one.
+	 * 
+	 * @param compactStorage true for a {@link LinkTable}, false by default
+	 */
+	public void setCompactStorage(boolean compactStorage){
+		this.compactStorage = compactStorage;
+	}
+
+	/**
+	 * @return returns true if the neighborhoods are stored in a {@link LinkTable}
+	 */
+	public boolean isCompactStorage(){
+		return compactStorage;
+	}
+
+	/**
+	 * @return returns the neighborhoods of the whole network if they are 
+	 * stored compactly, otherwise null
+	 */
+	public LinkTable getLinkTable(){
+		return linkTable;
+	}
+
+	/** The file of the {@link MappedLinkTable}, see {@link #setLinkFile}. */
+	private File linkFile = null;
+
+	/**
+	 * Sets a file to keep the neighborhoods in, instead of the heap, for 
+	 * topologies too large for the memory. The neighborhoods are stored in
+	 * a {@link MappedLinkTable}, the file is written once and reopened by the
+	 * later {@link #updateNeighborhoods} calls, even of later runs, as long as
+	 * the topology is the same: the model, its parameters, see 
+	 * {@link #getParameterHash}, and the positions and maximum radio 
+	 * strengths of the nodes. Otherwise the file is written again. Only the
+	 * dynamic strengths of the links, a double each, stay on the heap. The 
+	 * simulation is the same as with the arrays of the neighborhoods. 
+	 * It takes effect at the next {@link #updateNeighborhoods}.
+	 * 
+	 * @param linkFile the file, or null to keep the neighborhoods on the heap
+	 */
+	public void setLinkFile(File linkFile){
+		this.linkFile = linkFile;
+	}
+
+	/**
+	 * @return returns the file the neighborhoods are kept in, or null
+	 */
+	public File getLinkFile(){
+		return linkFile;
+	}
+
+	/**
+	 * Returns a hash of the parameters of the model which determine the 
+	 * neighborhoods besides the cutoff and the nodes, used to recognize a 
+	 * link file written for the same topology, see {@link #setLinkFile}. 
+	 * It covers the class, the {@link #fallingFactorHalf} and the 
+	 * {@link #fastAttenuation}, models with further such parameters must 
+	 * override it.
+	 * 
+	 * @return the hash
+	 */
+	protected long getParameterHash(){
+		long h = mix(mix(getClass().getName().hashCode()) + Double.doubleToLongBits(fallingFactorHalf));
+		return mix(h + (fastAttenuation ? 1 : 0));
+	}
+
+	/**
+	 * @return returns a hash of everything the neighborhoods depend on
+	 */
+	private long getTopologyHash(Node[] nodes, double cutoff){
+		long h = mix(getParameterHash() + Double.doubleToLongBits(cutoff));
+		h = mix(h + nodes.length);
+		for( int i=0; i<nodes.length; ++i ){
+			Node node = nodes[i];
+			h = mix(h + Double.doubleToLongBits(node.x));
+			h = mix(h + Double.doubleToLongBits(node.y));
+			h = mix(h + Double.doubleToLongBits(node.z));
+			h = mix(h + Double.doubleToLongBits(node.getMaximumRadioStrength()));
+		}
+		return h;
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator, a bijective 64 bit hash.
+	 */
+	static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/** The cache of the neighborhoods, see {@link #setTopologyCache}. */
+	private TopologyCache topologyCache = null;
+
+	/**
+	 * Sets a cache to look up the neighborhoods in before searching them, 
+	 * and to store them in after. Repeated runs of an experiment with the 
+	 * same seed and parameters find the same topology, so the search is done
+	 * only once. It is not used together with a link file, which is reopened
+	 * anyway, see {@link #setLinkFile}.
+	 * 
+	 * @param topologyCache the cache, or null to search every time
+	 */
+	public void setTopologyCache(TopologyCache topologyCache){
+		this.topologyCache = topologyCache;
+	}
+
+	/**
+	 * @return returns the cache of the neighborhoods, or null
+	 */
+	public TopologyCache getTopologyCache(){
+		return topologyCache;
+	}
+
+	/** The number of nodes whose neighbors are written to the link file at once. */
+	private static final int LINK_FILE_BATCH = 1 << 16;
+
+	/**
+	 * Finds the neighbors of every node of the simulator, the nodes whose 
+	 * {@link #getLinkFading} is at least the cutoff, and passes them to 
+	 * {@link #setNeighbors}, or stores them in the {@link #linkTable} if the
+	 * storage is compact or a link file is set. Only the nodes within the 
+	 * {@link #getMaximumRange} are examined, using a {@link KdTree}, so the 
+	 * result is the same as if every pair of nodes was examined. The neighbors
+	 * are listed in the order of the node list of the simulator.
+	 * 
+	 * @param sim the simulator
+	 * @param cutoff the smallest static fading of a neighbor
+	 */
+	protected void buildNeighborhoods(Simulator sim, double cutoff){
+		Node[] nodes = getNodes(sim);
+		double maxStrength = 0.0;
+		for( int i=0; i<nodes.length; ++i ){
+			maxStrength = Math.max(maxStrength, nodes[i].getMaximumRadioStrength());
+			nodes[i].radioIndex = i;
+		}
+		// a little wider than the range, so rounding cannot lose a neighbor
+		double range = getMaximumRange(maxStrength) * (1.0 + 1e-9);
+		indexedNodes = nodes;
+		indexedPositions = SpatialGrid.getPositions(nodes);
+		indexedRange = range;
+		indexedCutoff = cutoff;
+		grid = null;
+		try{
+			if( linkTable instanceof MappedLinkTable )
+				((MappedLinkTable)linkTable).close();
+			linkTable = null;
+			if( compactStorage || linkFile != null ){
+				for( int i=0; i<nodes.length; ++i )
+					nodes[i].getNeighborhood().index = i;
+			}
+
+			if( linkFile != null ){
+				long hash = getTopologyHash(nodes, cutoff);
+				linkTable = MappedLinkTable.open(linkFile, nodes, hash);
+				if( linkTable != null )
+					return;
+				KdTree tree = new KdTree(nodes);
+				MappedLinkTable.Writer writer = new MappedLinkTable.Writer(linkFile, nodes, hash);
+				try{
+					for( int from=0; from<nodes.length; from+=LINK_FILE_BATCH )
+						writer.write(findRows(nodes, tree, range, cutoff, from, Math.min(nodes.length, from + LINK_FILE_BATCH), true));
+					linkTable = writer.finish();
+				}
+				finally{
+					writer.close();
+				}
+			}
+			else if( topologyCache != null ){
+				long hash = getTopologyHash(nodes, cutoff);
+				List<LinkTable.Builder> rows = topologyCache.load(nodes, hash);
+				if( rows == null ){
+					rows = findRows(nodes, new KdTree(nodes), range, cutoff, 0, nodes.length, true);
+					topologyCache.store(nodes, hash, rows);
+				}
+				setRows(nodes, rows);
+			}
+			else if( compactStorage ){
+				KdTree tree = new KdTree(nodes);
+				linkTable = new ArrayLinkTable(nodes, findRows(nodes, tree, range, cutoff, 0, nodes.length, true));
+			}
+			else
+				findRows(nodes, new KdTree(nodes), range, cutoff, 0, nodes.length, false);
+		}
+		catch(IOException e){
+			File file = linkFile != null ? linkFile : topologyCache.getDirectory();
+			throw new UncheckedIOException("Cannot use the file " + file, e);
+		}
+	}
+
+	/**
+	 * Stores the neighbors of every node in the {@link #linkTable} if the 
+	 * storage is compact, otherwise passes them to {@link #setNeighbors}.
+	 */
+	private void setRows(Node[] nodes, List<LinkTable.Builder> rows){
+		if( compactStorage ){
+			linkTable = new ArrayLinkTable(nodes, rows);
+			return;
+		}
+		for( LinkTable.Builder part : rows ){
+			int start = 0;
+			for( int i=part.from; i<part.to; ++i ){
+				int end = part.rowEnds[i - part.from];
+				Node[] neighbors = new Node[end - start];
+				double[] staticFadings = new double[end - start];
+				for( int k=start; k<end; ++k ){
+					neighbors[k - start] = nodes[part.targets[k]];
+					staticFadings[k - start] = part.staticFadings[k];
+				}
+				setNeighbors(nodes[i], neighbors, staticFadings);
+				start = end;
+			}
+		}
+	}
+
+	/**
+	 * Computes the neighborhoods of the nodes from index from to index to,
+	 * in parallel if it is allowed.
+	 * 
+	 * @param keepRows whether the neighbors shall be returned instead of 
+	 * passing them to {@link #setNeighbors}
+	 * @return returns the neighbors of every node in order, or null
+	 */
+	private List<LinkTable.Builder> findRows(Node[] nodes, KdTree tree, double range, double cutoff, 
+			int from, int to, boolean keepRows){
+		List<LinkTable.Builder> rows = keepRows ? new ArrayList<LinkTable.Builder>() : null;
+		if( parallelism == 1 || to - from < 2 * NEIGHBORHOOD_CHUNK ){
+			LinkTable.Builder part = keepRows ? new LinkTable.Builder(from, to) : null;
+			findNeighbors(nodes, tree, range, cutoff, from, to, part);
+			if( keepRows )
+				rows.add(part);
+			return rows;
+		}
+		NeighborhoodTask task = new NeighborhoodTask(nodes, tree, range, cutoff, from, to, keepRows);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try{
+			pool.invoke(task);
+		}
+		finally{
+			pool.shutdown();
+		}
+		if( keepRows )
+			task.collect(rows);
+		return rows;
+	}
+
+	/** The nodes as they were listed by the last {@link #buildNeighborhoods}. */
+	private Node[] indexedNodes = null;
+
+	/** The positions of the nodes at the last {@link #buildNeighborhoods}. */
+	private double[] indexedPositions;
+
+	/** The maximum range used by the last {@link #buildNeighborhoods}. */
+	private double indexedRange;
+
+	/** The cutoff used by the last {@link #buildNeighborhoods}. */
+	private double indexedCutoff;
+
+	/** Follows the moving nodes, created by the first {@link #nodeMoved}. */
+	private SpatialGrid grid = null;
+
+	/**
+	 * Updates the neighborhoods after a single node moved, instead of 
+	 * recalculating all of them with {@link #updateNeighborhoods}. The row of
+	 * the moved node is computed again, and it is added to or removed from
+	 * the neighborhoods of the nodes within the maximum range of its old and
+	 * new position. The result is the same as that of 
+	 * {@link #buildNeighborhoods} with the new positions, except that the 
+	 * maximum range is not recalculated when the maximum radio strength of 
+	 * a node changes. <br>
+	 * If the node was not there when the neighborhoods were last computed, 
+	 * or they are stored in a {@link LinkTable}, all of them are computed 
+	 * again. The neighborhoods must not change while
+	 * the affected nodes are transmitting.
+	 * 
+	 * @param node the node whose position changed, see {@link Node#setPosition}
+	 */
+	public void nodeMoved(Node node){
+		Node[] nodes = indexedNodes;
+		int index = node.radioIndex;
+		if( nodes == null || index < 0 || index >= nodes.length || nodes[index] != node 
+				|| linkTable != null ){
+			updateNeighborhoods();
+			return;
+		}
+
+		if( grid == null ){
+			double cellSize = indexedRange > 0.0 ? indexedRange : 1.0;
+			grid = new SpatialGrid(nodes, indexedPositions, cellSize);
+			indexedPositions = null;
+		}
+
+		// the nodes which may list the moved node are around its old position,
+		// the ones which may list it from now on are around the new one
+		SpatialIndex.Result before = new SpatialIndex.Result();
+		SpatialIndex.Result after = new SpatialIndex.Result();
+		grid.findAround(index, indexedRange, before);
+		grid.move(index);
+		grid.findWithin(node, indexedRange, after);
+
+		findNeighbors(nodes, grid, indexedRange, indexedCutoff, index, index + 1, null);
+		for( int m=0; m<after.size; ++m )
+			updateNeighbor(nodes, after.indices[m], index);
+		for( int m=0; m<before.size; ++m )
+			updateNeighbor(nodes, before.indices[m], index);
+	}
+
+	/**
+	 * Adds the moved node to or removes it from the neighbors of a sender, 
+	 * keeping the order of the node list.
+	 */
+	private void updateNeighbor(Node[] nodes, int senderIndex, int receiverIndex){
+		if( senderIndex == receiverIndex )
+			return;
+		Node sender = nodes[senderIndex];
+		Node receiver = nodes[receiverIndex];
+		double staticFading = getLinkFading(sender, senderIndex, receiver, receiverIndex);
+		boolean neighbor = staticFading >= indexedCutoff;
+		Node[] neighbors = getNeighbors(sender);
+		double[] staticFadings = getStaticFadings(sender);
+		int lo = 0, hi = neighbors.length;
+		while( lo < hi ){
+			int mid = (lo + hi) >>> 1;
+			if( neighbors[mid].radioIndex < receiver.radioIndex )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		boolean present = lo < neighbors.length && neighbors[lo] == receiver;
+		if( present && neighbor ){
+			staticFadings[lo] = staticFading;
+			return;
+		}
+		if( !present && !neighbor )
+			return;
+
+		int k = neighbors.length + (neighbor ? 1 : -1);
+		Node[] newNeighbors = new Node[k];
+		double[] newFadings = new double[k];
+		System.arraycopy(neighbors, 0, newNeighbors, 0, lo);
+		System.arraycopy(staticFadings, 0, newFadings, 0, lo);
+		if( neighbor ){
+			newNeighbors[lo] = receiver;
+			newFadings[lo] = staticFading;
+			System.arraycopy(neighbors, lo, newNeighbors, lo + 1, neighbors.length - lo);
+			System.arraycopy(staticFadings, lo, newFadings, lo + 1, neighbors.length - lo);
+		}
+		else{
+			System.arraycopy(neighbors, lo + 1, newNeighbors, lo, k - lo);
+			System.arraycopy(staticFadings, lo + 1, newFadings, lo, k - lo);
+		}
+		setNeighbors(sender, newNeighbors, newFadings);
+	}
+
+	/** The smallest number of nodes whose neighborhoods are computed by one task. */
+	private static final int NEIGHBORHOOD_CHUNK = 256;
+
+	/**
+	 * Computes the neighborhoods of a range of nodes, splitting it in half 
+	 * while it is large.
+	 */
+	@SuppressWarnings("serial")
+	private class NeighborhoodTask extends RecursiveAction {
+
+		Node[] nodes;
+		KdTree tree;
+		double range;
+		double cutoff;
+		int from;
+		int to;
+		boolean keepRows;
+
+		/** The rows found by this task if it was not split and they are kept. */
+		LinkTable.Builder rows;
+
+		/** The halves if this task was split. */
+		NeighborhoodTask first;
+		NeighborhoodTask second;
+
+		NeighborhoodTask(Node[] nodes, KdTree tree, double range, double cutoff, int from, int to, boolean keepRows){
+			this.nodes = nodes;
+			this.tree = tree;
+			this.range = range;
+			this.cutoff = cutoff;
+			this.from = from;
+			this.to = to;
+			this.keepRows = keepRows;
+		}
+
+		protected void compute(){
+			if( to - from <= NEIGHBORHOOD_CHUNK ){
+				if( keepRows )
+					rows = new LinkTable.Builder(from, to);
+				findNeighbors(nodes, tree, range, cutoff, from, to, rows);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			first = new NeighborhoodTask(nodes, tree, range, cutoff, from, mid, keepRows);
+			second = new NeighborhoodTask(nodes, tree, range, cutoff, mid, to, keepRows);
+			invokeAll(first, second);
+		}
+
+		/**
+		 * Lists the rows found by the tasks in the order of the nodes.
+		 */
+		void collect(List<LinkTable.Builder> parts){
+			if( first == null )
+				parts.add(rows);
+			else{
+				first.collect(parts);
+				second.collect(parts);
+			}
+		}
+	}
+
+	/**
+	 * Computes the neighborhoods of the nodes from index from to index to.
+	 * 
+	 * @param rows receives the neighbors if it is not null, otherwise they
+	 * are passed to {@link #setNeighbors}
+	 */
+	private void findNeighbors(Node[] nodes, SpatialIndex tree, double range, double cutoff, int from, int to, 
+			LinkTable.Builder rows){
+		SpatialIndex.Result candidates = new SpatialIndex.Result();
+		int[] neighbors = new int[0];
+		double[] staticFadings = new double[0];
+		int[] rowIndices = new int[0];
+		double[] rowFadings = new double[0];
+		for( int i=from; i<to; ++i ){
+			Node node1 = nodes[i];
+			tree.findWithin(node1, range, candidates);
+			if( candidates.size > neighbors.length ){
+				neighbors = new int[candidates.indices.length];
+				staticFadings = new double[candidates.indices.length];
+				if( rows != null ){
+					rowIndices = new int[candidates.indices.length];
+					rowFadings = new double[candidates.indices.length];
+				}
+			}
+			int k = 0;
+			for( int m=0; m<candidates.size; ++m ){
+				int j = candidates.indices[m];
+				if( j == i )
+					continue;
+				double staticFading = getLinkFading(node1, i, nodes[j], j);
+				if( staticFading >= cutoff ){
+					neighbors[k] = j;
+					staticFadings[k] = staticFading;
+					k++;
+				}
+			}
+
+			// the neighbors in the order of the node list
+			long[] order = new long[k];
+			for( int p=0; p<k; ++p )
+				order[p] = ((long)neighbors[p] << 32) | p;
+			Arrays.sort(order);
+			if( rows != null ){
+				for( int p=0; p<k; ++p ){
+					int q = (int)order[p];
+					rowIndices[p] = neighbors[q];
+					rowFadings[p] = staticFadings[q];
+				}
+				rows.addRow(i, rowIndices, rowFadings, k);
+				continue;
+			}
+			Node[] sortedNeighbors = new Node[k];
+			double[] sortedFadings = new double[k];
+			for( int p=0; p<k; ++p ){
+				int q = (int)order[p];
+				sortedNeighbors[p] = nodes[neighbors[q]];
+				sortedFadings[p] = staticFadings[q];
+			}
+			setNeighbors(node1, sortedNeighbors, sortedFadings);
+		}
+	}
 	
 	/**
 	 * The Neighborhood class represents the set of neighboring nodes of a given
@@ -60,9 +719,27 @@ public abstract class RadioModel{
 	 * specific radio model.
 	 */
 	protected abstract static class Neighborhood{
+		/**
+		 * The position of the node in the {@link RadioModel#linkTable}, if 
+		 * the neighborhoods are stored compactly.
+		 */
+		int index = -1;
+
+		/** The node of this neighborhood, the sender of its transmissions. */
+		protected Node node;
+
+		/**
+		 * The generator of the dynamic fadings of the links of the node, 
+		 * restarted for every transmission from a stream split from that of
+		 * the node, see {@link Node#getRandom}, and drawing the fadings of
+		 * all the links in one batch. Every node has its own, so the 
+		 * partitions of a {@link ParallelSimulator} never share one.
+		 */
+		protected final Ziggurat linkFading = new Ziggurat(0);
+
 		/**
 		 * This method must call the {@link Node#receptionBegin} method of
-		 * each of the neighboring nodes. 
+		 * each of the neighboring nodes, through {@link #beginReception}. 
 		 * 
 		 * @param strength The diminished radio strength of the received 
 		 * 	signal
@@ -70,6 +747,45 @@ public abstract class RadioModel{
 		 */
 		protected abstract void beginTransmission(double strength, Object stream);
 
+		/**
+		 * Calls the {@link Node#receptionBegin} method of a neighbor, on 
+		 * behalf of the neighbor, so the events it schedules are its own, 
+		 * see {@link Simulator#addEvent}. If the neighbor is in another 
+		 * partition of a {@link ParallelSimulator}, the call is passed to its
+		 * partition instead.
+		 * 
+		 * @param receiver the neighbor
+		 * @param strength the received radio strength
+		 * @param stream the stream of the transmission
+		 */
+		protected final void beginReception(Node receiver, double strength, Object stream){
+			if( receiver.simulator == node.simulator ){
+				Simulator sim = node.simulator;
+				Node active = sim.activeNode;
+				sim.activeNode = receiver;
+				receiver.receptionBegin(strength, stream);
+				sim.activeNode = active;
+			}
+			else
+				ParallelSimulator.post(node.simulator, receiver, strength, stream, false);
+		}
+
+		/**
+		 * Calls the {@link Node#receptionEnd} method of a neighbor, see 
+		 * {@link #beginReception}.
+		 */
+		protected final void endReception(Node receiver, double strength, Object stream){
+			if( receiver.simulator == node.simulator ){
+				Simulator sim = node.simulator;
+				Node active = sim.activeNode;
+				sim.activeNode = receiver;
+				receiver.receptionEnd(strength, stream);
+				sim.activeNode = active;
+			}
+			else
+				ParallelSimulator.post(node.simulator, receiver, strength, stream, true);
+		}
+
 		/**
 		 * It must guarantee that each {@link Node#receptionBegin} call is 
 		 * matched with a {@link Node#receptionEnd} call with the exact same 
@@ -24,7 +24,7 @@
  
 package net.tinyos.prowler;
 
-
+import net.goui.util.SplitRandom;
 
 /**
  * This radio model uses the assumption that nodes are moving very often. 
@@ -44,40 +44,24 @@ public class RayleighRadioModel extends RadioModel {
 
 	/**
 	 * This defines the period after which the dynamic fading is recalculated
-	 * for the nodes in the neighborhood. 
+	 * for the nodes in the neighborhood. The fadings of a sender are drawn
+	 * by its first transmission after the period, so no timer is needed and
+	 * idle senders draw no random numbers.
 	 */
 	public static int COHERENCE_TIME = Simulator.ONE_SECOND;
-	
-	/**
-	 * We need to have a clock event so that we can use the 
-	 * {@link Simulator#getLastEventTime} method. This variable defines the
-	 * frequency of the timer.
-	 */
-	private long clockTickTime = Simulator.ONE_SECOND / 100;
 
-	/**
-	 * The exhibitor of the radio signal degradation, typically it is 2/2 if the
-	 * motes are well above ground, though at ground level this factor is 
-	 * closer to 3/2. For efficiency reasons, this number is the half of the
-	 * usually defined falling factor.
-	 */ 
-	public double fallingFactorHalf = 1.1;
-    
 	/** 
 	 * limits the number of neighbours used to calculate interference ratio
 	 */
 	public double radioStrengthCutoff = 0.2/6;
 	
 	/**
-	 * Parameterized constructor, besides setting the simulator it also adds its
-	 * clock event to it and sets the updateTime to a default value back in the 
-	 * past so that it is reset at the first transmission.
+	 * Parameterized constructor.
 	 * 
 	 * @param sim
 	 */
 	public RayleighRadioModel(Simulator sim){
 		this.sim = sim;
-		sim.addEvent( new RayleighRadioModel.ClockTickEvent((int)(Simulator.random.nextDouble() * clockTickTime)) );
 	}
 
 	/**
@@ -86,23 +70,24 @@ public class RayleighRadioModel extends RadioModel {
 	 * @return Returns the ideal radio strength
 	 */
 	protected double getStaticFading(Node sender, Node receiver){
-		return sender.getMaximumRadioStrength() / (1.0 + Math.pow(sender.getDistanceSquare(receiver), fallingFactorHalf));
+		return sender.getMaximumRadioStrength() / (1.0 + getAttenuation(sender.getDistanceSquare(receiver)));
 	}
 
 	/**
-	 * Calculates the received radio signal strength using an exponential 
-	 * distribution coefficient the signal strength multiplicator used and the 
-	 * previously calculated ideal strength.
+	 * Calculates the received radio signal strength with the given power of
+	 * the Rayleigh fading, an exponential random number of mean 1, which is 
+	 * the distribution of the half sum of the squares of two standard normal
+	 * random numbers.
 	 * 
 	 * @param signalStrength the signal strength of the sender. These numbers shall 
      * be in the <code>[0,1]</code> interval.
 	 * @param staticFading the static fading as returned by {@link #getStaticFading}.
+	 * @param power the exponential random number of the link, see 
+	 * {@link Neighborhood#beginTransmission}
 	 * @return The signal strength at the receiver.
 	 */
-	protected double getDynamicStrength(double signalStrength, double staticFading){
-		double gaussian1 = Simulator.random.nextGaussian();
-		double gaussian2 = Simulator.random.nextGaussian();
-		return signalStrength * staticFading * (gaussian1*gaussian1+gaussian2*gaussian2) / 2;
+	protected double getDynamicStrength(double signalStrength, double staticFading, double power){
+		return signalStrength * staticFading * power;
 	}
 
 	/**
@@ -115,57 +100,70 @@ public class RayleighRadioModel extends RadioModel {
 	/**
 	 * (Re)calculates the neighborhoods of every node in the network. 
 	 * This operation should be called whenever the location of the nodes 
-	 * changed. This operation is extremely expensive and should be used sparsely.
+	 * changed. Only the nodes within the maximum radio range are examined, 
+	 * see {@link RadioModel#buildNeighborhoods}.
 	 */
-    public void updateNeighborhoods() {              
-        // count nodes
-        int nodeNum = 0;
-        Node node1 = sim.firstNode;
-        while (node1 != null){
-            node1 = node1.nextNode;
-            ++nodeNum;
-        }
-    
-        Node[] neighbors = new Node[nodeNum];
-        double[] staticFadings = new double[nodeNum];
-                    
-        node1 = sim.firstNode;
-        while (node1 != null){
-            int i = 0;
-            Node node2 = sim.firstNode;
-            
-            while (node2 != null){
-                double staticRadioStrength = getStaticFading(node1, node2);
-                if( staticRadioStrength >= radioStrengthCutoff && node1 != node2){
-                    neighbors[i] = node2;
-                    staticFadings[i] = staticRadioStrength;                    
-                    i++;
-                }
-                node2 = node2.nextNode;
-            }
-        
-            Neighborhood neighborhood = (Neighborhood)node1.getNeighborhood();
-            neighborhood.neighbors = new Node[i];
-            System.arraycopy(neighbors, 0, neighborhood.neighbors, 0, i );           
-            neighborhood.staticFadings = new double[i];
-            System.arraycopy(staticFadings, 0, neighborhood.staticFadings, 0, i );
-            neighborhood.dynamicStrengths = new double[i];         
-            node1 = node1.nextNode;
-        }       
-    }
+	public void updateNeighborhoods() {
+		buildNeighborhoods(sim, radioStrengthCutoff);
+	}
+
+	/**
+	 * @return returns the distance where the ideal radio strength falls to
+	 * the {@link #radioStrengthCutoff}
+	 */
+	protected double getMaximumRange(double maxStrength){
+		return getAttenuationRange(maxStrength, radioStrengthCutoff);
+	}
+
+	protected double getLinkFading(Node sender, int senderIndex, Node receiver, int receiverIndex){
+		return getStaticFading(sender, receiver);
+	}
+
+	protected void setNeighbors(Node node, Node[] neighbors, double[] staticFadings){
+		Neighborhood neighborhood = (Neighborhood)node.getNeighborhood();
+		neighborhood.neighbors = neighbors;
+		neighborhood.staticFadings = staticFadings;
+		neighborhood.fadingPowers = new double[neighbors.length];
+		// the new links have no fading yet
+		neighborhood.updateTime = Neighborhood.NEVER;
+	}
+
+	protected Node[] getNeighbors(Node node){
+		return ((Neighborhood)node.getNeighborhood()).neighbors;
+	}
+
+	protected double[] getStaticFadings(Node node){
+		return ((Neighborhood)node.getNeighborhood()).staticFadings;
+	}
+
 	/**
 	 * This class stores all the node related data the RayleighRadioModel needs, 
 	 * this includes an array of neighboring notes, the static fading and 
-	 * the dynamic strentgh as well for every neighboring nodes plus the entity
-	 * being transmitted by the node. 
+	 * the power of the dynamic fading for every neighboring nodes plus the 
+	 * entity being transmitted by the node. The arrays are not used if the 
+	 * neighborhoods are stored in a {@link LinkTable}, see 
+	 * {@link RadioModel#setCompactStorage} and {@link RadioModel#setLinkFile},
+	 * then the powers are kept in the dynamic slots of the table.
 	 */
 	protected class Neighborhood extends RadioModel.Neighborhood{
 		
+		/** The {@link #updateTime} of a neighborhood whose fadings are not drawn yet. */
+		protected static final long NEVER = Long.MIN_VALUE;
+
 		/** The vector of the neighboring nodes. */
 		protected Node[] neighbors;
         
-        /** The last time this node was updated, see {@link RayleighRadioModel#COHERENCE_TIME}.*/
-        protected long updateTime = 0;
+		/** 
+		 * The time the fadings of the links were drawn, see 
+		 * {@link RayleighRadioModel#COHERENCE_TIME}, or {@link #NEVER}.
+		 */
+		protected long updateTime = NEVER;
+
+		/** The link table the fadings were drawn into, see {@link #updateTime}. */
+		protected LinkTable updateTable = null;
+
+		/** The number of times the fadings were drawn, see {@link #beginTransmission}. */
+		protected long updateNum = 0;
 		 
 		/**
 		 * The vector of static fading factors. These numbers shall 
@@ -174,60 +172,86 @@ public class RayleighRadioModel extends RadioModel {
 		protected double[] staticFadings;
 
 		/**
-		 * This vector holds the signal strength values that we 
-		 * contributed to the neighbours in the last transmission. 
-		 * We must keep these values because we have to use the 
-		 * same strengths for the matching {@link Node#receptionEnd} call.
+		 * The power of the Rayleigh fading of every link, an exponential
+		 * random number of mean 1, which is kept for the coherence time.
+		 */
+		protected double[] fadingPowers;
+
+		/**
+		 * The signal strength of the current transmission. The received 
+		 * strengths are computed again from it for the matching 
+		 * {@link Node#receptionEnd} calls, which gives the same numbers.
 		 */
-		protected double[] dynamicStrengths;
+		protected double strength;
 
 		/**
 		 * Contains the stream object during an active transmission,
 		 * or <code>null</code> if we do not transmit.
 		 */
 		protected Object stream = null;
-        
-        public Neighborhood() { 
-            updateTime = sim.getSimulationTime()-COHERENCE_TIME;
-        }
 
 		/**
-		 * Calculates the dynamic signal strength based on the
-		 * static fading factors and a per-transmission dynamic 
-		 * random factor. Then calls the {@link Node#receptionBegin}
-		 * method on all neighbors.
+		 * Tells if the fadings have to be drawn again because the coherence 
+		 * time is over, or they were never drawn for the current links.
+		 */
+		private boolean isExpired(long time, LinkTable links){
+			return updateTime == NEVER || time > updateTime + COHERENCE_TIME || links != updateTable;
+		}
+
+		/**
+		 * Draws the fadings if they are expired, then calculates the received
+		 * signal strength from the static fading and the fading power of each
+		 * link and calls the {@link Node#receptionBegin} method on all 
+		 * neighbors. The powers of all the links are drawn in one batch by 
+		 * the {@link #linkFading} generator, from a stream split from the 
+		 * stream of the node by the number of the update, see 
+		 * {@link Node#getRandom}.
 		 */
-        
-        
 		protected void beginTransmission(double strength, Object stream){
 			if( stream == null )
 				throw new IllegalArgumentException("The stream object must be non-null");
 			else if( this.stream != null )
 			{
-				throw new IllegalStateException("No nested transmissions are allowed - time: "+sim.getSimulationTime());
+				throw new IllegalStateException("No nested transmissions are allowed - time: "+node.simulator.getSimulationTime());
 			}
 			
 			this.stream = stream;
-			
-			boolean recalculate = false;
-			long lastEventTime = sim.getSimulationTime();
-			if (lastEventTime > updateTime + COHERENCE_TIME){
-		    	//System.out.println("CHANNEL UPDATE");
-				updateTime = lastEventTime;
-				recalculate = true;
+			this.strength = strength;
+
+			long time = node.simulator.getSimulationTime();
+			LinkTable links = linkTable;
+			boolean recalculate = isExpired(time, links);
+			if( recalculate ){
+				updateTime = time;
+				updateTable = links;
 			}
 			
-			int i = neighbors.length;
-			while( --i >= 0 ){
-				double dynamicStrength;
-				if (recalculate){
-					dynamicStrength = getDynamicStrength(strength, staticFadings[i]);
-					dynamicStrengths[i] = dynamicStrength;
-				} else{
-					dynamicStrength = dynamicStrengths[i];
+			if( links != null ){
+				if( index < 0 )
+					return;
+				long first = links.getFirstLink(index);
+				long i = links.getEndLink(index);
+				if( recalculate ){
+					linkFading.setState(SplitRandom.seed(node.getRandom().getSeed(), updateNum++));
+					int count = (int)(i - first);
+					double[] samples = node.simulator.getFadingSamples(count);
+					linkFading.nextExponentials(samples, count);
+					for( int k=0; k<count; ++k )
+						links.setDynamicStrength(first + k, samples[k]);
 				}
-				neighbors[i].receptionBegin(dynamicStrength, stream);
+				while( --i >= first )
+					beginReception(links.getNode(links.getTarget(i)), 
+						getDynamicStrength(strength, links.getStaticFading(i), links.getDynamicStrength(i)), stream);
+				return;
+			}
+
+			int i = neighbors.length;
+			if( recalculate ){
+				linkFading.setState(SplitRandom.seed(node.getRandom().getSeed(), updateNum++));
+				linkFading.nextExponentials(fadingPowers, i);
 			}
+			while( --i >= 0 )
+				beginReception(neighbors[i], getDynamicStrength(strength, staticFadings[i], fadingPowers[i]), stream);
 		}
 		
 		/**
@@ -236,34 +260,24 @@ public class RayleighRadioModel extends RadioModel {
 		 * {@link RadioModel.Neighborhood#beginTransmission} method.
 		 */
 		protected void endTransmission(){
+			LinkTable links = linkTable;
+			if( links != null ){
+				if( index >= 0 ){
+					long first = links.getFirstLink(index);
+					long i = links.getEndLink(index);
+					while( --i >= first )
+						endReception(links.getNode(links.getTarget(i)), 
+							getDynamicStrength(strength, links.getStaticFading(i), links.getDynamicStrength(i)), stream);
+				}
+				stream = null;
+				return;
+			}
+
 			int i = neighbors.length;
 			while( --i >= 0 )
-				neighbors[i].receptionEnd(dynamicStrengths[i], stream);
+				endReception(neighbors[i], getDynamicStrength(strength, staticFadings[i], fadingPowers[i]), stream);
 				
 			stream = null;
 		}
 	}
-
-	/**
-	 * Inner class ClockTickEvent. Represents a given time resolution needed.
-	 */
-	public class ClockTickEvent extends Event {
-    	
-		public ClockTickEvent(int time){
-			super(time);
-		}
-    	
-		/**
-		 * Calls the clocktick function of the mote, and makes itself happen again a clockcycle later.
-		 */   
-		public void execute(){
-			// add next tick event
-			time += clockTickTime;
-			sim.addEvent( this );
-		}
-        
-		public String toString(){
-			return Long.toString(time) + "\tRayleighRadioModel.ClockTickEvent\t" + RayleighRadioModel.this;
-		}
-	}
 }
@@ -0,0 +1,19 @@
+package net.tinyos.prowler;
+
+/**
+ * One replication of an experiment, run by the {@link ReplicationRunner}.
+ * Replications run concurrently, so an implementation must build its own
+ * {@link Simulator} with the given seed and must not share mutable state with
+ * the other replications.
+ */
+public interface ReplicationIF {
+
+	/**
+	 * @param replication the index of the replication, starting at 0
+	 * @param seed the seed of the random generator of the simulator
+	 * @return returns the measured values, in the order of the statistic 
+	 * names given to the runner
+	 * @throws Exception the runner stops and passes it on to its caller
+	 */
+	public double[] runReplication(int replication, int seed) throws Exception;
+}
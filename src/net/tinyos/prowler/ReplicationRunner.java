@@ -0,0 +1,168 @@
+package net.tinyos.prowler;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.goui.util.StatKeeper;
+
+/**
+ * Runs the replications of an experiment on a fixed pool of threads, by 
+ * default one for every processor. Replication i gets the seed 
+ * baseSeed + i, so every replication has its own random stream and a run
+ * can be repeated exactly. The values returned by the replications are 
+ * added to the {@link StatKeeper}s in the order of the replications by the
+ * calling thread, so the statistics do not depend on the number of threads
+ * either. <br>
+ * The runner also measures the wall-clock time of the whole run and the 
+ * time spent in the replications, their ratio is the speedup over running
+ * the replications one after the other.
+ */
+public class ReplicationRunner {
+
+	/** The names of the measured values, one {@link StatKeeper} each. */
+	private String[] statNames;
+
+	/** The number of threads running the replications. */
+	private int threadNum = Runtime.getRuntime().availableProcessors();
+
+	/** The seed of the first replication. */
+	private int baseSeed = Simulator.DEFAULT_SEED;
+
+	/** If true the statistics record every value, see {@link StatKeeper#StatKeeper(boolean, String)}. */
+	private boolean recordValues = false;
+
+	/** The wall-clock time of the last run in milliseconds. */
+	private long wallClockTime = 0;
+
+	/** The sum of the running times of the replications of the last run in milliseconds. */
+	private long replicationTime = 0;
+
+	/**
+	 * @param statNames the names of the values returned by the replications
+	 */
+	public ReplicationRunner(String[] statNames){
+		this.statNames = statNames;
+	}
+
+	/**
+	 * @param threadNum the number of threads, 1 runs the replications one
+	 * after the other
+	 */
+	public void setThreadNum(int threadNum){
+		if( threadNum < 1 )
+			throw new IllegalArgumentException("At least one thread is needed");
+		this.threadNum = threadNum;
+	}
+
+	/**
+	 * @param baseSeed the seed of the first replication
+	 */
+	public void setBaseSeed(int baseSeed){
+		this.baseSeed = baseSeed;
+	}
+
+	/**
+	 * @param recordValues true to keep every value in the statistics, not only
+	 * their summary
+	 */
+	public void setRecordValues(boolean recordValues){
+		this.recordValues = recordValues;
+	}
+
+	/**
+	 * Runs the replications and waits until all of them are finished.
+	 * 
+	 * @param experiment the experiment
+	 * @param replicationNum the number of replications
+	 * @return returns the statistics, in the order of the names
+	 * @throws Exception the first exception thrown by a replication, in the
+	 * order of the replications
+	 */
+	public StatKeeper[] run(final ReplicationIF experiment, int replicationNum) throws Exception{
+		long time0 = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(threadNum);
+		List<Future<double[]>> results = new ArrayList<Future<double[]>>(replicationNum);
+		final long[] times = new long[replicationNum];
+		try{
+			for( int i=0; i<replicationNum; ++i ){
+				final int replication = i;
+				results.add(pool.submit(new Callable<double[]>(){
+					public double[] call() throws Exception{
+						long start = System.currentTimeMillis();
+						double[] values = experiment.runReplication(replication, baseSeed + replication);
+						times[replication] = System.currentTimeMillis() - start;
+						return values;
+					}
+				}));
+			}
+
+			StatKeeper[] stats = new StatKeeper[statNames.length];
+			for( int i=0; i<statNames.length; ++i )
+				stats[i] = new StatKeeper(recordValues, statNames[i]);
+			for( int i=0; i<replicationNum; ++i ){
+				double[] values;
+				try{
+					values = results.get(i).get();
+				}
+				catch(ExecutionException e){
+					if( e.getCause() instanceof Exception )
+						throw (Exception)e.getCause();
+					throw e;
+				}
+				if( values.length != statNames.length )
+					throw new IllegalStateException("Replication " + i + " returned " + values.length + " values instead of " + statNames.length);
+				for( int j=0; j<values.length; ++j )
+					stats[j].add(values[j]);
+			}
+
+			// the future of every replication is done, its time is visible
+			replicationTime = 0;
+			for( int i=0; i<replicationNum; ++i )
+				replicationTime += times[i];
+			wallClockTime = Math.max(1, System.currentTimeMillis() - time0);
+			return stats;
+		}
+		finally{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return returns the wall-clock time of the last run in milliseconds
+	 */
+	public long getWallClockTime(){
+		return wallClockTime;
+	}
+
+	/**
+	 * @return returns the sum of the running times of the replications of 
+	 * the last run in milliseconds
+	 */
+	public long getReplicationTime(){
+		return replicationTime;
+	}
+
+	/**
+	 * @return returns how many times faster the last run was than running 
+	 * its replications one after the other
+	 */
+	public double getSpeedup(){
+		return wallClockTime == 0 ? 0 : replicationTime / (double)wallClockTime;
+	}
+
+	/**
+	 * @return returns the timing of the last run as a line of text
+	 */
+	public String report(){
+		DecimalFormat df = new DecimalFormat("0.0");
+		return "wall-clock " + df.format(wallClockTime / 1000.0) + " s, replications " 
+			+ df.format(replicationTime / 1000.0) + " s on " + threadNum + " threads, speedup " 
+			+ df.format(getSpeedup());
+	}
+}
@@ -1,16 +1,13 @@
 package net.tinyos.prowler;
 
 import java.awt.*;
+import java.io.File;
 import java.text.DecimalFormat;
-import java.util.Random;
+import java.util.Map;
 
-public class SelforganizingBackbones extends Application {
-
-	static int nconnected, noveralltime;
+import net.goui.util.StatKeeper;
 
-	static Simulator sim;
-
-	static Random rand = new Random(1234);
+public class SelforganizingBackbones extends Application {
 
 	static final int number_colors = 2;
 
@@ -34,16 +31,18 @@ public class SelforganizingBackbones extends Application {
 
 	//private String disptxt = "";
 
-	static int decision_delay = 50; // in milliseconds
+	static final int DECISION_DELAY = 50; // in milliseconds
 
-	static int METHOD = 3;
+	static final int METHOD = 3;
 
-	private static int genVariableWaitTime() {
+	int decision_delay = DECISION_DELAY; // in milliseconds
+
+	private int genVariableWaitTime() {
 
 		int d;
 
 		d = decision_delay - decision_delay / 4
-				+ rand.nextInt(decision_delay / 2);
+				+ node.getRandom().nextInt(decision_delay / 2);
 		return d * Simulator.ONE_SECOND / 1000;
 	}
 
@@ -57,6 +56,7 @@ public class SelforganizingBackbones extends Application {
 
 		public void execute() {
 			Mica2Node mNode = (Mica2Node) node;
+			Simulator sim = node.getSimulator();
 			// int j=0;
 			int minimum = 100;
 
@@ -84,7 +84,7 @@ public class SelforganizingBackbones extends Application {
 
 				// select randomly one of the colors with minimum count
 
-				int k = 0, r = 1 + rand.nextInt(canditates);
+				int k = 0, r = 1 + node.getRandom().nextInt(canditates);
 				for (int i = 0; i < number_colors; i++)
 					if (counter[i] == minimum)
 						if (++k == r) {
@@ -106,6 +106,7 @@ public class SelforganizingBackbones extends Application {
 	}
 
 	public void receiveMessage(Object message, Node sender) {
+		Simulator sim = node.getSimulator();
 		int receivedmsg = Integer.parseInt(message.toString()) % 1000;
 
 		if (receivedmsg == 0)
@@ -123,13 +124,12 @@ public class SelforganizingBackbones extends Application {
 
 			if (flag == true) {
 				connected = true;
-				nconnected++;
 			}
 		}
 
 		if (decided == false) {
 			if (receivedmsg == 0) {
-				code = 1 + rand.nextInt(number_colors);
+				code = 1 + node.getRandom().nextInt(number_colors);
 				msg = code + 1000 * node.id;
 				sendMessage(String.valueOf(msg));
 				decided = true;
@@ -213,22 +213,144 @@ public class SelforganizingBackbones extends Application {
 	}
 
 	/**
-	 * Starts up a simulator with a ROOT in the middle of a 300 by 300 meters
-	 * field with 1000 motes and runs it in real time mode.
+	 * Sets up the mote field of one replication, the root is in the middle of
+	 * the field.
+	 * 
+	 * @return returns the application of the root
+	 * @throws Exception see {@link Simulator#createNode}
+	 */
+	static SelforganizingBackbones createField(Simulator sim, RadioModel radioModel,
+			int nmotes, int fieldsize, boolean grid) throws Exception {
+		return createField(sim, radioModel, nmotes, fieldsize, grid, DECISION_DELAY);
+	}
+
+	/**
+	 * Sets up the mote field of one replication with the given decision delay
+	 * of the algorithm.
+	 * 
+	 * @return returns the application of the root
+	 * @throws Exception see {@link Simulator#createNode}
+	 */
+	static SelforganizingBackbones createField(Simulator sim, RadioModel radioModel,
+			int nmotes, int fieldsize, boolean grid, int decisionDelay) throws Exception {
+		Mica2Node root = (Mica2Node) sim.createNode(Mica2Node.class,
+				radioModel, 1, fieldsize / 2, fieldsize / 2, 0);
+		// root.visited = true;
+		SelforganizingBackbones baseApp = new SelforganizingBackbones(root);
+		baseApp.decided = true;
+		// base node is always connected
+
+		// creating all the other nodes
+		
+		if (grid) {
+			  int k=2;
+			  int nline=(int)Math.sqrt(nmotes);
+			  float step=(float)fieldsize/nline;
+			  for (float x = step/2; x <= fieldsize; x+=step)
+			     for (float y = step/2; y <= fieldsize; y+=step){
+			        Mica2Node tempNode = (Mica2Node) sim.createNode(Mica2Node.class,
+			              radioModel,k, x, y,0);
+			        new SelforganizingBackbones(tempNode);
+			        k=k+1;
+			        } 
+		} else {
+			Node tempNode = sim.createNodes(Mica2Node.class, radioModel, 2,
+					nmotes, fieldsize, 5);
+			while (tempNode != null) {
+				new SelforganizingBackbones(tempNode);
+				tempNode = tempNode.nextNode;
+			}				
+		}
+
+		// This call is a must, please do not forget to call it whenever the
+		// mote field is set up
+
+		radioModel.updateNeighborhoods();
+
+		for (Node tempNode = sim.getFirstNode(); tempNode != null; tempNode = tempNode.nextNode) {
+			SelforganizingBackbones app = (SelforganizingBackbones) tempNode
+					.getApplication(SelforganizingBackbones.class);
+			app.decision_delay = decisionDelay;
+		}
+		return baseApp;
+	}
+
+	/**
+	 * @return returns the number of motes of the simulator which are connected
+	 */
+	static int countConnected(Simulator sim) {
+		int n = 0;
+		for (Node tempNode = sim.getFirstNode(); tempNode != null; tempNode = tempNode.nextNode) {
+			SelforganizingBackbones app = (SelforganizingBackbones) tempNode
+					.getApplication(SelforganizingBackbones.class);
+			if (app != null && app.connected)
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Runs the sweep over the mote number, the field size, the radio model,
+	 * and the decision delay, see {@link ParameterSweep}. Only the method
+	 * {@link #METHOD} is implemented, so it is not a parameter.
+	 * 
+	 * @param fileName the result file, an unfinished sweep is continued
+	 * @param simruns the number of replications of every cell
+	 * @param topologyCache the cache of the neighborhoods, or null
+	 * @throws Exception
+	 */
+	static void sweep(String fileName, int simruns, final TopologyCache topologyCache) throws Exception {
+		ParameterSweep sweep = new ParameterSweep(new String[] { "connected", "time" });
+		sweep.addParameter("nmotes", 50, 350, 50);
+		sweep.addParameter("fieldsize", 100, 350, 50);
+		sweep.addParameter("radio", new String[] { "gaussian", "rayleigh" });
+		sweep.addParameter("decision_delay", new String[] { Integer.toString(DECISION_DELAY) });
+		sweep.setReplicationNum(simruns);
+
+		long time0 = System.currentTimeMillis();
+		int cellNum = sweep.run(new SweepIF() {
+			public double[] runReplication(Map<String, String> cell, int replication, int seed) throws Exception {
+				int nmotes = Integer.parseInt(cell.get("nmotes"));
+				Simulator sim = new Simulator(seed);
+				RadioModel radioModel = cell.get("radio").equals("rayleigh") ? new RayleighRadioModel(sim)
+						: new GaussianRadioModel(sim);
+				radioModel.setTopologyCache(topologyCache);
+				SelforganizingBackbones baseApp = createField(sim, radioModel, nmotes,
+						Integer.parseInt(cell.get("fieldsize")), false,
+						Integer.parseInt(cell.get("decision_delay")));
+				baseApp.sendMessage("0");
+				sim.run(20000);
+
+				return new double[] { countConnected(sim) / (double) nmotes,
+						sim.getSimulationTimeInMillisec() };
+			}
+		}, fileName);
+		System.out.println(cellNum + " cells run in "
+				+ (System.currentTimeMillis() - time0) / 1000 + " s, results in " + fileName);
+	}
+
+	/**
+	 * Starts up a simulator with a ROOT in the middle of a 100 by 100 meters
+	 * field with 100 motes. With the display a single run is shown, otherwise
+	 * the replications run in parallel, see {@link ReplicationRunner}. <br>
+	 * Usage: SelforganizingBackbones [resultFile [simruns [topologyCacheDirectory]]]
+	 * runs the whole parameter sweep instead, see {@link #sweep}. The 
+	 * neighborhoods of the decision delay variants of a field, and
+	 * of the reruns, are found in the cache then, see {@link TopologyCache}.
 	 * 
 	 * @param args
 	 * @throws Exception
 	 */
 public static void main(String[] args) throws Exception {
-		long time0 = System.currentTimeMillis();
+		if (args.length > 0) {
+			sweep(args[0], args.length > 1 ? Integer.parseInt(args[1]) : 10,
+					args.length > 2 ? new TopologyCache(new File(args[2])) : null);
+			return;
+		}
+
 		int nmotes = 100, fieldsize = 100, simruns = 1; 
 		final boolean realTime = false, withDisplay = true, grid = false;
 		
-		//for (nmotes = 50; nmotes <= 350; nmotes+=50)
-		//for (fieldsize = 100; fieldsize <= 350 ; fieldsize+=50)
-		{
-			nconnected = 0; // count number of connected nodes
-			noveralltime = 0; // number of overall timer ticks
 		DecimalFormat df = new DecimalFormat("0.0");
 		
 		float density;
@@ -237,90 +359,52 @@ public static void main(String[] args) throws Exception {
 		
 		System.out.println("Simulating (" + nmotes + " motes on a " + fieldsize
 				+ "x" + fieldsize + " field, using method " + METHOD + ", d="+df.format(density)+")");
-		// System.out.print("Thinking");
-		for (int j = 1; j <= simruns; j++) {
-			
-			//if (simruns >= 10)
-				// if (j % (simruns / 10) == 0)
-					// System.out.print(".");
-			sim = new Simulator();
+
+		if (withDisplay) {
+			Simulator sim = new Simulator();
 
 			// creating the desired radio model, uncomment the one you need
 			// RayleighRadioModel radioModel = new RayleighRadioModel(sim);
 			GaussianRadioModel radioModel = new GaussianRadioModel(sim);
-			
-			Mica2Node root = (Mica2Node) sim.createNode(Mica2Node.class,
-					radioModel, 1, fieldsize / 2, fieldsize / 2, 0);
-			// root.visited = true;
-			System.out.println("nline=");
-			SelforganizingBackbones baseApp = new SelforganizingBackbones(root);
-			baseApp.decided = true;
-			// base node is always connected
-
-			// creating all the other nodes
-			
-			if (grid) {
-				  int k=2;
-				  System.out.println("nline=");
-				  int nline=(int)Math.sqrt(nmotes);
-				  System.out.println("nline="+nline);
-				  float step=(float)fieldsize/nline;
-				  for (float x = step/2; x <= fieldsize; x+=step)
-				     for (float y = step/2; y <= fieldsize; y+=step){
-				        Mica2Node tempNode = (Mica2Node) sim.createNode(Mica2Node.class,
-				              radioModel,k, x, y,0);
-				        new SelforganizingBackbones(tempNode);
-				        k=k+1;
-				        } 
-			} else {
-				Node tempNode = sim.createNodes(Mica2Node.class, radioModel, 2,
-						nmotes, fieldsize, 5);
-				while (tempNode != null) {
-					new SelforganizingBackbones(tempNode);
-					tempNode = tempNode.nextNode;
-				}				
+			SelforganizingBackbones baseApp = createField(sim, radioModel, nmotes, fieldsize, grid);
+			baseApp.sendMessage("0");
+
+			if (realTime)
+				sim.runWithDisplayInRealTime();
+			else {
+				sim.runWithDisplay();
+				System.out.println("Successfully connected nodes: "
+						+ countConnected(sim) * 100 / nmotes + "%");
 			}
-			
-			
-
-			// This call is a must, please do not forget to call it whenever the
-			// mote field is set up
-
-			radioModel.updateNeighborhoods();
-
-			root.sendMessage("0", baseApp);
-
-			if (withDisplay) {
-				if (realTime)
-					sim.runWithDisplayInRealTime();
-				else
-					sim.runWithDisplay();
-			} else {
-				if (realTime)
-					System.out
-							.println("Will not do real-time without display, switching to non-rt...");
+			return;
+		}
 
+		if (realTime)
+			System.out
+					.println("Will not do real-time without display, switching to non-rt...");
+
+		final int motes = nmotes, field = fieldsize;
+		ReplicationRunner runner = new ReplicationRunner(new String[] { "connected", "time" });
+		StatKeeper[] stats = runner.run(new ReplicationIF() {
+			public double[] runReplication(int replication, int seed) throws Exception {
+				Simulator sim = new Simulator(seed);
+
+				// creating the desired radio model, uncomment the one you need
+				// RayleighRadioModel radioModel = new RayleighRadioModel(sim);
+				GaussianRadioModel radioModel = new GaussianRadioModel(sim);
+				SelforganizingBackbones baseApp = createField(sim, radioModel, motes, field, grid);
+				baseApp.sendMessage("0");
 				sim.run(20000);
-			}
-
-			while (!sim.endOfSimulation())
-				System.out.println("waiting");
-			// Thread.sleep(200);
 
-			noveralltime += sim.getSimulationTimeInMillisec();
-		} // next j
+				return new double[] { countConnected(sim), sim.getSimulationTimeInMillisec() };
+			}
+		}, simruns);
 
-		
-		System.out
-				.println("("
-						+ df
-								.format((float) (System.currentTimeMillis() - time0) / 1000)
-						+ " s)");
-		float success = (float) nconnected / (nmotes * simruns);
-		int success_pc = (int) (success * 100);
+		System.out.println("(" + runner.report() + ")");
+		int success_pc = (int) (stats[0].mean() / nmotes * 100);
 
 		System.out.print("Successfully connected nodes: " + success_pc + "%; ");
 		System.out.println("Average algorithm running time: "
-				+ df.format((float) noveralltime / (simruns * 1000)) + " s");
-	} // for loop
-	}}
\ No newline at end of file
+				+ df.format(stats[1].mean() / 1000) + " s");
+	}
+}
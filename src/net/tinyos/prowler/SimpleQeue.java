@@ -1,13 +1,12 @@
 package net.tinyos.prowler;
-@SuppressWarnings("rawtypes")
-public class SimpleQeue 
+public class SimpleQeue implements EventQueue
 {
 	int size_ = 0;
 	long debug_last_event_ = 0;
 	QueueEntry first_ = null;
 	class QueueEntry
 	{
-		Comparable content = null;;
+		Event content = null;;
 		QueueEntry next=null;
 		QueueEntry previous=null;
 	}
@@ -18,9 +17,11 @@ public class SimpleQeue
 	}
 	
 	
-	@SuppressWarnings("unchecked")
-	public void add(Comparable element)
+	public void add(Event element)
 	{
+		if(element.queueIndex >= 0)
+			throw new IllegalStateException("The event is already queued: " + element);
+		element.queueIndex = 0;
 		QueueEntry new_entry = new QueueEntry();
 		new_entry.content = element;
 		size_++;
@@ -35,7 +36,7 @@ public class SimpleQeue
 			QueueEntry entry = first_;		
 			while(true)
 			{
-				if(entry.content.compareTo(element)>0)
+				if(Event.compare(entry.content, element)>0)
 				{
 					new_entry.next = entry;
 					new_entry.previous = entry.previous;
@@ -61,43 +62,66 @@ public class SimpleQeue
 	
 	public void clear()
 	{
+		for(QueueEntry entry=first_;entry!=null;entry=entry.next)
+			entry.content.queueIndex = -1;
 		size_ = 0;
 		first_ = null;
 	}
 	
-	public Object first()
+	public Event first()
 	{
 		if(size_==0)
 			return null;
 		return first_.content;
 	}
 	
-	@SuppressWarnings("unchecked")
-	public void remove(Object first)
+	public void remove(Event first)
 	{
-		if(((Comparable)first).compareTo(first_.content)!=0)
+		if(Event.compare(first, first_.content)!=0)
 			throw new IllegalArgumentException();
 		assert(first == first_.content);
 		size_--;
-		debug_last_event_ = ((Event)first_.content).time;
+		debug_last_event_ = first_.content.time;
+		first_.content.queueIndex = -1;
 		
 		first_ = first_.next;
 		if(first_ != null)
 			first_.previous = null;
 	}
 	
-	public Object getAndRemoveFirst()
+	public Event getAndRemoveFirst()
 	{
 		if(size_==0)
 			return null;
 		size_--;
-		Object result = first_.content;
+		Event result = first_.content;
+		result.queueIndex = -1;
 		first_ = first_.next;
 		if(first_ != null)
 			first_.previous = null;
 		return result;
 	}
 	
+	public boolean cancel(Event event)
+	{
+		for(QueueEntry entry=first_;entry!=null;entry=entry.next)
+		{
+			if(entry.content == event)
+			{
+				if(entry.previous == null)
+					first_ = entry.next;
+				else
+					entry.previous.next = entry.next;
+				if(entry.next != null)
+					entry.next.previous = entry.previous;
+				size_--;
+				event.queueIndex = -1;
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	public String toString()
 	{
 		String result = "";
@@ -107,9 +131,9 @@ public class SimpleQeue
 		{
 			{
 				if(result=="")
-					result = debug_last_event_+": "+((Event)node_entry.content).time;
+					result = debug_last_event_+": "+node_entry.content.time;
 				else
-					result = result + "," +((Event)node_entry.content).time;
+					result = result + "," +node_entry.content.time;
 			}
 		}		
 		return result;
@@ -24,7 +24,7 @@
 
 package net.tinyos.prowler;
 
-import net.goui.util.NESRandom;
+import net.goui.util.UnsynchronizedRandom;
 
 import java.lang.reflect.Constructor;
 import java.util.Iterator;
@@ -40,19 +40,79 @@ import java.util.Random;
 @SuppressWarnings("rawtypes")
 public class Simulator{
 	
+	/** The seed of the random generator of a simulator if not given otherwise. */
+	public static final int DEFAULT_SEED = 1234;
+
 	/** 
-	 * This is a static reference to a Random instance.
-	 * This makes experiments repeatable, all you have to do is to set
- 	 * the seed of this Random class. 
- 	 */
-	
-	static int seed_ = 1234;	
-	static public Random random = new NESRandom(seed_);
-	public static void setSeed(int seed)
+	 * The random generator of this simulator, every random decision of the 
+	 * experiment should be drawn from it. This makes experiments repeatable,
+	 * all you have to do is to set the seed, see {@link #setSeed}. Every
+	 * simulator has its own generator, so simulators running in the same 
+	 * process do not disturb each other. The decisions of the nodes are
+	 * drawn from their own streams, see {@link Node#getRandom}.
+	 */
+	public Random random;
+
+	/** The scratch array of the radio models, see {@link #getFadingSamples}. */
+	private double[] fadingSamples = new double[16];
+
+	int seed_;
+
+	/**
+	 * The seed of the streams of the nodes, see {@link Node#getRandom}, the
+	 * partitions of a {@link ParallelSimulator} keep that of the simulator.
+	 */
+	long streamSeed;
+
+	/**
+	 * Restarts the random generators of this simulator with the given seed.
+	 * 
+	 * @param seed the new seed
+	 */
+	public void setSeed(int seed)
 	{
 		seed_ = seed;
-		random = new NESRandom(seed_);
+		streamSeed = seed;
+		random = new UnsynchronizedRandom(seed_);
+	}
+
+	/**
+	 * The radio models draw the dynamic fadings of all the links of a
+	 * transmission into this array in one batch, see 
+	 * {@link RadioModel.Neighborhood#linkFading}, and store them before any 
+	 * reception begins, so one array per simulator is enough. The 
+	 * partitions of a {@link ParallelSimulator} have their own.
+	 * 
+	 * @param count the number of samples
+	 * @return returns the scratch array of the radio models, with room for 
+	 * at least the given number of samples
+	 */
+	double[] getFadingSamples(int count){
+		if( fadingSamples.length < count )
+			fadingSamples = new double[Math.max(count, 2 * fadingSamples.length)];
+		return fadingSamples;
 	}
+
+	/**
+	 * @return returns the seed the random generator was started with
+	 */
+	public int getSeed(){
+		return seed_;
+	}
+
+	/** 
+	 * The serial number of the next event added to this simulator without an
+	 * owner, see {@link #addEvent}.
+	 */
+	long serialCounter = 0;
+
+	/**
+	 * The node on whose behalf the code runs, the {@link Event#owner} of the
+	 * event being executed or the receiver of a reception, see 
+	 * {@link RadioModel.Neighborhood#beginReception}. It is null outside the
+	 * events.
+	 */
+	Node activeNode = null;
 	
 	
 	/**
@@ -63,11 +123,26 @@ public class Simulator{
 	public static final int ONE_SECOND = 300000; // 40000
 
 	/** Holds the events */
-	PriorityQueue eventQueue = new PriorityQueue();
+	PriorityQueue eventQueue;
+
+	/** Holds the timers until their slot begins, created on demand, see {@link #addTimerEvent}. */
+	private TimingWheel timingWheel = null;
+
+	/** The slot width of the {@link TimingWheel} of the simulator, 10 milliseconds. */
+	public static final long TIMER_SLOT_WIDTH = ONE_SECOND / 100;
     
 	/** The time of the last event using the given resolution */            
 	long lastEventTime = 0;
 
+	/** 
+	 * If true the {@link #run} method executes all the events of the same 
+	 * time in one pass, see {@link #setBatchDispatch}.
+	 */
+	private boolean batchDispatch = false;
+
+	/** Notified after the events of each time were executed in batch dispatch mode. */
+	private TimeStepIF timeStepListener = null;
+
 	/** Needed for the display, stores the maximum of both the x and y coordinates */
 	private double maxCoordinate = 0;
 	
@@ -79,26 +154,32 @@ public class Simulator{
 
 	/** 
 	 * As the simulator is event based there is a need for a queue to handle 
-	 * the occurring events. This general priority queue is based on a
-	 * a TreeSet.
+	 * the occurring events. This general priority queue delegates to one of
+	 * the {@link EventQueue} implementations, by default a binary heap, see
+	 * {@link HeapQueue}.
 	*/
 	public class PriorityQueue{
 
-		//private TreeSet queue = new TreeSet();
-		private SimpleQeue queue = new SimpleQeue();
-		//private TestQueue queue = new TestQueue();
+		private EventQueue queue;
+
+		/**
+		 * @param queue the queue implementation holding the events
+		 */
+		public PriorityQueue( EventQueue queue ){
+			this.queue = queue;
+		}
 	
-		/** Adds an item to the queue, item must be Comparable
+		/** Adds an item to the queue
 		 * @param item The item to be added to the queue
 		*/
-		public void add( Comparable item ){
+		public void add( Event item ){
 			queue.add( item );
 		}
 
 		/**
 		 * @return Returns the first element and removes it form the queue 
 		 */
-		public Object getAndRemoveFirst()
+		public Event getAndRemoveFirst()
 		{
 			return queue.getAndRemoveFirst();
 			/*
@@ -114,7 +195,7 @@ public class Simulator{
 			*/
 		}
 		
-		public Object getFirst()
+		public Event getFirst()
 		{
 			return queue.first();
 			
@@ -134,6 +215,15 @@ public class Simulator{
 		public void clear(){
 			queue.clear();
 		}
+
+		/**
+		 * Removes an item from the queue
+		 * @param item the item to be removed
+		 * @return Returns true if the item was in the queue
+		 */
+		public boolean remove( Event item ){
+			return queue.cancel( item );
+		}
     
 		/**
 		 * @return Returns the number of items in the queue
@@ -168,11 +258,51 @@ public class Simulator{
 	}
     
 	/**
-	 * Adds an event to the event queue.
+	 * Adds an event to the event queue. The event belongs to the node of a
+	 * {@link RadioEventIF}, otherwise to the node on whose behalf the current
+	 * event runs, and it gets the next serial number of that node. Events of 
+	 * the same time are executed in the order of the positions of their 
+	 * nodes in the node list, see {@link Node#radioIndex}, and the events of 
+	 * a node in the order they were added. So the order depends only on what
+	 * the nodes do, and not on the order the nodes run in, which makes the 
+	 * runs of the {@link ParallelSimulator} the same for any number of 
+	 * partitions. The events added outside any event, or on behalf of a node 
+	 * without a position, are numbered by this simulator and come first.
 	 *  
 	 * @param e the event to be added to the queue
 	 */
 	public void addEvent( Event e )
+	{
+		number( e );
+		queueEvent( e );
+	}
+
+	/**
+	 * Gives an event its owner and serial number, see {@link #addEvent}.
+	 */
+	final void number( Event e )
+	{
+		Node node = e instanceof RadioEventIF ? ((RadioEventIF)e).getNode() : activeNode;
+		e.owner = node;
+		if( node != null && node.radioIndex >= 0 )
+		{
+			e.source = node.radioIndex;
+			e.serialNumber = node.eventNum++;
+		}
+		else
+		{
+			e.source = -1;
+			e.serialNumber = serialCounter++;
+		}
+	}
+
+	/**
+	 * Adds an event to the event queue keeping its owner and serial number, 
+	 * like an event handed over by the {@link TimingWheel}.
+	 * 
+	 * @param e the event to be added to the queue
+	 */
+	void queueEvent( Event e )
 	{
 		if(lastEventTime > e.time)
 		{
@@ -181,17 +311,79 @@ public class Simulator{
 		assert(lastEventTime<=e.time);
 		eventQueue.add( e );        
 	}
+
+	/**
+	 * Adds an event through the {@link TimingWheel} of the simulator. Use
+	 * this for periodic timers and for events far ahead of the current time:
+	 * the event is moved to the event queue only when its slot begins, so it
+	 * does not slow down the queue until then.
+	 * 
+	 * @param e the event to be added, preferably created with a time, see
+	 * {@link TimingWheel}
+	 */
+	public void addTimerEvent( Event e )
+	{
+		number( e );
+		getTimingWheel().schedule( e );
+	}
+
+	/**
+	 * @return returns the timing wheel of the simulator
+	 */
+	public TimingWheel getTimingWheel(){
+		if( timingWheel == null )
+			timingWheel = new TimingWheel( this, TIMER_SLOT_WIDTH );
+		return timingWheel;
+	}
+
+	/**
+	 * Removes an event from the event queue, so that it will not be executed.
+	 * Use this instead of leaving an outdated event in the queue and 
+	 * ignoring it in its execute method.
+	 * 
+	 * @param e the event to be removed from the queue
+	 * @return returns true if the event was queued
+	 */
+	public boolean cancelEvent( Event e )
+	{
+		if( e.wheelSlot >= 0 )
+			return timingWheel.cancel( e );
+		return eventQueue.remove( e );
+	}
+
+	/**
+	 * Moves an event to a new time. If the event is not queued it is simply 
+	 * added at the new time. The event is ordered as if it was added now, see
+	 * {@link #addEvent}.
+	 * 
+	 * @param e the event to be moved
+	 * @param newTime the new time of the event
+	 */
+	public void reschedule( Event e, long newTime )
+	{
+		cancelEvent( e );
+		e.time = newTime;
+		addEvent( e );
+	}
     
 	/**
 	 * Processes and executes the next event. 
 	 */    
 	public void step(){
-		Event event = (Event)eventQueue.getAndRemoveFirst();
+		Event event = eventQueue.getAndRemoveFirst();
+		while( event instanceof TimingWheel.SlotEvent )
+		{
+			// internal, it does not count as a step nor move the time
+			event.execute();
+			event = eventQueue.getAndRemoveFirst();
+		}
 		if( event != null )
 		{			
 			assert(lastEventTime <= event.time);
 			lastEventTime = event.time;
+			activeNode = event.owner;
 			event.execute();
+			activeNode = null;
 		}
 	}
 	    
@@ -208,15 +400,27 @@ public class Simulator{
 	}
     
 	/**
-	 * Runs the simulation for a given amount of time.
+	 * Runs the simulation for a given amount of time. The internal events of
+	 * the {@link TimingWheel} are executed without moving the time of the
+	 * simulator, so the run ends after the same event as if the timers were
+	 * added to the event queue directly.
 	 * 
 	 * @param timeInSec the time in seconds until the simulation is to run
 	 */
 	public void run( double timeInSec ){
 		long tmax = lastEventTime + (long)(Simulator.ONE_SECOND * timeInSec);
+		if( batchDispatch ){
+			runInTimeSteps( tmax );
+			return;
+		}
 		while( lastEventTime < tmax )
         {
-            Event event = (Event)eventQueue.getAndRemoveFirst();
+            Event event = eventQueue.getAndRemoveFirst();
+            if( event instanceof TimingWheel.SlotEvent )
+            {
+            	event.execute();
+            	continue;
+            }
             if( event != null )
             {            	
             	if(lastEventTime > event.time)
@@ -225,13 +429,97 @@ public class Simulator{
             	}
             	assert(lastEventTime<=event.time);
             	lastEventTime = event.time;
+            	activeNode = event.owner;
                 event.execute();
             }
             else
                 break;
         }
+		activeNode = null;
 	}
 	
+	/**
+	 * The batch dispatch version of {@link #run}. The events are taken out of 
+	 * the queue in the same order, but the events of the same time are 
+	 * executed in one pass, so the time is checked and updated only once for
+	 * all of them. Events added for the current time while the pass is running
+	 * are executed in the same pass. As in {@link #run}, only one event is 
+	 * executed at or after the end time.
+	 * 
+	 * @param tmax the time until the simulation is to run
+	 */
+	private void runInTimeSteps( long tmax ){
+		while( lastEventTime < tmax )
+		{
+			Event event = eventQueue.getAndRemoveFirst();
+			if( event == null )
+				break;
+			if( event instanceof TimingWheel.SlotEvent )
+			{
+				// internal, it is not a time step of its own
+				event.execute();
+				continue;
+			}
+
+			long time = event.time;
+			if(lastEventTime > time)
+			{
+				System.err.println("lastEventTime="+lastEventTime+"|event_time="+time);
+			}
+			assert(lastEventTime<=time);
+			lastEventTime = time;
+
+			int eventNum = 0;
+			while( true )
+			{
+				activeNode = event.owner;
+				event.execute();
+				++eventNum;
+				if( time >= tmax )
+					break;
+				event = eventQueue.getFirst();
+				if( event == null || event.time != time || event instanceof TimingWheel.SlotEvent )
+					break;
+				eventQueue.getAndRemoveFirst();
+			}
+
+			activeNode = null;
+			if( timeStepListener != null )
+				timeStepListener.timeStepDone(time, eventNum);
+		}
+	}
+
+	/**
+	 * Switches the batch dispatch mode of the {@link #run} method on or off.
+	 * In batch dispatch mode the events of the same time are executed in one 
+	 * pass and the {@link TimeStepIF} set by {@link #setTimeStepListener} is
+	 * notified after each pass. The order of the events is the same in both
+	 * modes.
+	 * 
+	 * @param batchDispatch true to switch batch dispatch on
+	 */
+	public void setBatchDispatch( boolean batchDispatch ){
+		this.batchDispatch = batchDispatch;
+	}
+
+	/**
+	 * @return returns true if the batch dispatch mode is on
+	 */
+	public boolean isBatchDispatch(){
+		return batchDispatch;
+	}
+
+	/**
+	 * Sets the listener which is notified after all the events of a given time
+	 * were executed. It is only called in batch dispatch mode, see 
+	 * {@link #setBatchDispatch}.
+	 * 
+	 * @param listener the listener, or null to remove it
+	 */
+	public void setTimeStepListener( TimeStepIF listener ){
+		timeStepListener = listener;
+	}
+
 	/**
 	 * This function runs the simulation with the display.
 	 * The user of the simulator must first add all the nodes used in the 
@@ -374,6 +662,8 @@ public class Simulator{
 	 */
 	public void clear(){
 		firstNode = null;
+		if( timingWheel != null )
+			timingWheel.clear();
         eventQueue.clear();
         lastEventTime = 0;
 	}
@@ -382,6 +672,8 @@ public class Simulator{
      * Clears the eventQueue. All the nodes remain in the simulator.
      */
     public void reset(){
+        if( timingWheel != null )
+            timingWheel.clear();
         eventQueue.clear();
         lastEventTime = 0;
     }
@@ -395,7 +687,44 @@ public class Simulator{
     
     public Simulator() 
     {
+    	this(new HeapQueue());
     	//System.out.println("!!!!!!!!!!!!!!!!!!!!!!\n Seed: "+seed_+"\n!!!!!!!!!!!!!!!!!!!!!!");
 	}
 
+    /**
+     * Creates a simulator with the given seed of its random generator.
+     * 
+     * @param seed the seed, see {@link #setSeed}
+     */
+    public Simulator(int seed)
+    {
+    	this(new HeapQueue(), seed);
+    }
+
+    /**
+     * Creates a simulator using the given event queue implementation. Every
+     * {@link EventQueue} executes the events in the same order, they only
+     * differ in speed: the {@link HeapQueue} is a safe default, the
+     * {@link CalendarQueue} is faster when most events are scheduled shortly
+     * after the current time.
+     * 
+     * @param queue an empty event queue
+     */
+    public Simulator(EventQueue queue)
+    {
+    	this(queue, DEFAULT_SEED);
+    }
+
+    /**
+     * Creates a simulator using the given event queue implementation and seed.
+     * 
+     * @param queue an empty event queue
+     * @param seed the seed of the random generator, see {@link #setSeed}
+     */
+    public Simulator(EventQueue queue, int seed)
+    {
+    	eventQueue = new PriorityQueue(queue);
+    	setSeed(seed);
+    }
+
 }
@@ -0,0 +1,194 @@
+package net.tinyos.prowler;
+
+import java.util.HashMap;
+
+/**
+ * A spatial index which follows moving nodes: the plane is divided into 
+ * square cells, only the cells holding nodes are stored, and moving a node 
+ * to another cell takes O(1) time. A query looks at the cells overlapping 
+ * the square around the searched sphere, so it is fast if the cells are 
+ * about as wide as the typical query radius and the nodes are spread evenly;
+ * the {@link KdTree} handles clustered fields better but cannot follow 
+ * moving nodes. The grid remembers the position of every node as of its 
+ * last {@link #move}, and the queries use these positions, so every moving 
+ * node has to be reported. The z coordinate is not used to find the cells.
+ */
+public class SpatialGrid extends SpatialIndex {
+
+	/**
+	 * The nodes of a cell.
+	 */
+	private static class Cell {
+
+		int[] members = new int[4];
+
+		int size = 0;
+	}
+
+	/** The nodes the grid was built from. */
+	private Node[] nodes;
+
+	/** The width of the cells. */
+	private double cellSize;
+
+	/** The cells which hold nodes, by the key of their position. */
+	private HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+
+	/** The cell of each node. */
+	private Cell[] cellOfNode;
+
+	/** The key of the cell of each node. */
+	private long[] keyOfNode;
+
+	/** The position of each node within its cell. */
+	private int[] slotOfNode;
+
+	/** The x, y and z coordinates of each node known by the grid. */
+	private double[] positions;
+
+	/**
+	 * Builds the grid.
+	 * 
+	 * @param nodes the nodes
+	 * @param cellSize the width of the cells, best about the query radius,
+	 * it is infinite if all the nodes shall be in the same cell
+	 */
+	public SpatialGrid(Node[] nodes, double cellSize){
+		this(nodes, getPositions(nodes), cellSize);
+	}
+
+	/**
+	 * Builds the grid from earlier positions of the nodes.
+	 * 
+	 * @param nodes the nodes
+	 * @param positions the x, y and z coordinates of each node, see 
+	 * {@link #getPositions}, the grid takes it over
+	 * @param cellSize the width of the cells
+	 */
+	SpatialGrid(Node[] nodes, double[] positions, double cellSize){
+		if( !(cellSize > 0.0) )
+			throw new IllegalArgumentException("The cell size must be positive");
+		this.nodes = nodes;
+		this.positions = positions;
+		this.cellSize = cellSize;
+		cellOfNode = new Cell[nodes.length];
+		keyOfNode = new long[nodes.length];
+		slotOfNode = new int[nodes.length];
+		for( int i=0; i<nodes.length; ++i )
+			insert(i, keyOf(column(positions[3*i]), row(positions[3*i+1])));
+	}
+
+	/**
+	 * @return returns the x, y and z coordinates of each node one after the other
+	 */
+	static double[] getPositions(Node[] nodes){
+		double[] positions = new double[3 * nodes.length];
+		for( int i=0; i<nodes.length; ++i ){
+			positions[3*i] = nodes[i].x;
+			positions[3*i+1] = nodes[i].y;
+			positions[3*i+2] = nodes[i].z;
+		}
+		return positions;
+	}
+
+	private long column(double x){
+		return (long)Math.floor(x / cellSize);
+	}
+
+	private long row(double y){
+		return (long)Math.floor(y / cellSize);
+	}
+
+	private static long keyOf(long column, long row){
+		return (column << 32) ^ (row & 0xFFFFFFFFL);
+	}
+
+	private void insert(int index, long key){
+		Cell cell = cells.get(key);
+		if( cell == null ){
+			cell = new Cell();
+			cells.put(key, cell);
+		}
+		if( cell.size == cell.members.length ){
+			int[] members = new int[2 * cell.size];
+			System.arraycopy(cell.members, 0, members, 0, cell.size);
+			cell.members = members;
+		}
+		slotOfNode[index] = cell.size;
+		cell.members[cell.size++] = index;
+		cellOfNode[index] = cell;
+		keyOfNode[index] = key;
+	}
+
+	/**
+	 * Moves a node to its current position.
+	 * 
+	 * @param index the index of the node
+	 */
+	public void move(int index){
+		Node node = nodes[index];
+		positions[3*index] = node.x;
+		positions[3*index+1] = node.y;
+		positions[3*index+2] = node.z;
+		long key = keyOf(column(node.x), row(node.y));
+		if( key == keyOfNode[index] )
+			return;
+
+		Cell cell = cellOfNode[index];
+		int slot = slotOfNode[index];
+		int last = cell.members[--cell.size];
+		cell.members[slot] = last;
+		slotOfNode[last] = slot;
+		if( cell.size == 0 )
+			cells.remove(keyOfNode[index]);
+		insert(index, key);
+	}
+
+	public void findWithin(Node center, double radius, Result result){
+		findWithin(center.x, center.y, center.z, radius, result);
+	}
+
+	/**
+	 * Finds the nodes within the given distance of the position a node had 
+	 * before its last move was reported.
+	 * 
+	 * @param index the index of the node
+	 * @param radius the distance
+	 * @param result receives the indices of the nodes found
+	 */
+	public void findAround(int index, double radius, Result result){
+		findWithin(positions[3*index], positions[3*index+1], positions[3*index+2], radius, result);
+	}
+
+	private void findWithin(double x, double y, double z, double radius, Result result){
+		result.size = 0;
+		double radiusSquare = radius * radius;
+		long fromColumn = column(x - radius), toColumn = column(x + radius);
+		long fromRow = row(y - radius), toRow = row(y + radius);
+		// the cells of an unlimited radius, or too many of them, are looked at one by one
+		if( radius == Double.POSITIVE_INFINITY 
+				|| (double)(toColumn - fromColumn + 1) * (toRow - fromRow + 1) > cells.size() ){
+			for( Cell cell : cells.values() )
+				collect(cell, x, y, z, radiusSquare, result);
+			return;
+		}
+		for( long column=fromColumn; column<=toColumn; ++column ){
+			for( long row=fromRow; row<=toRow; ++row ){
+				Cell cell = cells.get(keyOf(column, row));
+				if( cell != null )
+					collect(cell, x, y, z, radiusSquare, result);
+			}
+		}
+	}
+
+	private void collect(Cell cell, double x, double y, double z, double radiusSquare, Result result){
+		for( int m=0; m<cell.size; ++m ){
+			int j = cell.members[m];
+			double dx = positions[3*j] - x;
+			double dy = positions[3*j+1] - y;
+			double dz = positions[3*j+2] - z;
+			if( dx*dx + dy*dy + dz*dz <= radiusSquare )
+				result.add(j);
+		}
+	}
+}
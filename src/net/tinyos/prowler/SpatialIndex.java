@@ -0,0 +1,41 @@
+package net.tinyos.prowler;
+
+import java.util.Arrays;
+
+/**
+ * The base class of the spatial indexes the radio models use to find the 
+ * candidate neighbors of a node, see {@link KdTree} and {@link SpatialGrid}.
+ * The nodes are identified by their index in the array the index was built
+ * from.
+ */
+public abstract class SpatialIndex {
+
+	/**
+	 * The result of a query, reused from query to query to avoid allocation.
+	 */
+	public static class Result {
+
+		/** The indices of the nodes found in no particular order. */
+		public int[] indices = new int[16];
+
+		/** The number of nodes found. */
+		public int size = 0;
+
+		void add(int index){
+			if( size == indices.length )
+				indices = Arrays.copyOf(indices, 2 * size);
+			indices[size++] = index;
+		}
+	}
+
+	/**
+	 * Finds the nodes within the given distance of a node, including the node
+	 * itself if it is in the index.
+	 * 
+	 * @param center the node in the middle of the searched sphere
+	 * @param radius the distance
+	 * @param result receives the indices of the nodes found, its previous
+	 * content is dropped
+	 */
+	public abstract void findWithin(Node center, double radius, Result result);
+}
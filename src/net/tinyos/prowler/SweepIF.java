@@ -0,0 +1,22 @@
+package net.tinyos.prowler;
+
+import java.util.Map;
+
+/**
+ * One replication of one cell of a {@link ParameterSweep}. Replications run
+ * concurrently, so an implementation must build its own {@link Simulator}
+ * with the given seed and must not share mutable state with the other 
+ * replications.
+ */
+public interface SweepIF {
+
+	/**
+	 * @param cell the value of every parameter of the sweep by its name
+	 * @param replication the index of the replication, starting at 0
+	 * @param seed the seed of the random generator of the simulator
+	 * @return returns the measured values, in the order of the statistic 
+	 * names given to the sweep
+	 * @throws Exception the sweep stops and passes it on to its caller
+	 */
+	public double[] runReplication(Map<String, String> cell, int replication, int seed) throws Exception;
+}
@@ -25,6 +25,7 @@
 package net.tinyos.prowler;
 
 import java.awt.*;
+import java.io.File;
 
 /**
  * This is a sample application, it shows a way of utilizing the Prowler 
@@ -119,7 +120,10 @@ public class TestBroadcastNode extends Mica2Node {
 
 	/**
 	 * Starts up a simulator with a ROOT in the middle of a 300 by 300 meters
-	 * field with 1000 motes and runs it in real time mode.
+	 * field with 1000 motes and runs it in real time mode. <br>
+	 * Usage: TestBroadcastNode [topologyCacheDirectory], the neighborhoods 
+	 * are kept in the given directory for the next runs, see 
+	 * {@link TopologyCache}.
 	 * 
 	 * @param args
 	 * @throws Exception
@@ -131,6 +135,8 @@ public class TestBroadcastNode extends Mica2Node {
 		// creating the desired radio model, uncomment the one you need 
 		GaussianRadioModel radioModel = new GaussianRadioModel(sim);
 		//RayleighRadioModel radioModel = new RayleighRadioModel(sim);
+		if( args.length > 0 )
+			radioModel.setTopologyCache(new TopologyCache(new File(args[0])));
 
 		// creating the node in the middle of the field, and adding a broadcast
 		// application
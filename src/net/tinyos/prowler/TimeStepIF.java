@@ -0,0 +1,17 @@
+package net.tinyos.prowler;
+
+/**
+ * Receives a callback from the {@link Simulator} after all the events of a 
+ * given time have been executed, see {@link Simulator#setBatchDispatch} and
+ * {@link Simulator#setTimeStepListener}. This is the place to aggregate the
+ * effects of the events happening at the same time, like the receptions of a
+ * broadcast. 
+ */
+public interface TimeStepIF {
+
+	/**
+	 * @param time the time of the executed events
+	 * @param eventNum the number of events executed at this time
+	 */
+	public void timeStepDone(long time, int eventNum);
+}
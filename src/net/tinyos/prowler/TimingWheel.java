@@ -0,0 +1,294 @@
+package net.tinyos.prowler;
+
+/**
+ * A hierarchical timing wheel for periodic timers and other events scheduled
+ * well ahead of the current time. The time is divided into slots of a fixed
+ * width, the wheel has four levels of 64 slots each, a slot of a level
+ * covering a whole revolution of the level below. Scheduling an event just
+ * links it into a slot in O(1) time. The events of a slot are handed over to
+ * the event queue of the {@link Simulator} only when the slot begins, driven
+ * by a single internal event, so the simulator queue holds only the events of
+ * the near future no matter how many nodes have their timers running. Events
+ * beyond the range of the wheel, and events of the current slot, are added
+ * to the simulator queue directly. <br>
+ * The internal event has the smallest possible owner position, so it is
+ * executed before any other event of its time. The events keep the owner and
+ * serial number they got when they were scheduled, see 
+ * {@link Simulator#addTimerEvent}, so the events handed over are executed in
+ * the same order as if they were added to the simulator directly. <br>
+ * Use {@link Simulator#addTimerEvent} to schedule an event through the wheel
+ * of a simulator.
+ */
+public class TimingWheel {
+
+	/** The number of bits of the slot index within a level. */
+	private static final int SLOT_BITS = 6;
+
+	/** The number of slots per level. */
+	private static final int SLOTS = 1 << SLOT_BITS;
+
+	private static final int SLOT_MASK = SLOTS - 1;
+
+	/** The number of levels. */
+	private static final int LEVELS = 4;
+
+	/** The simulator this wheel feeds. */
+	private Simulator sim;
+
+	/** The width of a slot of the lowest level in 1/{@link Simulator#ONE_SECOND} second. */
+	private long slotWidth;
+
+	/** The slots of every level, each is an unordered list linked by {@link Event#queueNext}. */
+	private Event[][] slots = new Event[LEVELS][SLOTS];
+
+	/** One bit for every slot of a level, set if the slot is not empty. */
+	private long[] occupied = new long[LEVELS];
+
+	/** The next slot to be processed, measured in slots. */
+	private long base = 0;
+
+	/** The number of events in the wheel. */
+	private int size = 0;
+
+	/** Hands over the events of a slot to the simulator. */
+	private SlotEvent slotEvent = new SlotEvent();
+
+	/**
+	 * Inner class SlotEvent. Happens at the beginning of the next slot which
+	 * has events or which is the boundary of a higher level slot.
+	 */
+	class SlotEvent extends Event {
+
+		SlotEvent(){
+			// executed before any other event of the same time
+			source = Integer.MIN_VALUE;
+			serialNumber = Long.MIN_VALUE;
+		}
+
+		public void execute(){
+			advance(time / slotWidth);
+		}
+
+		public String toString(){
+			return Long.toString(time) + "\tTimingWheel.SlotEvent\t" + TimingWheel.this;
+		}
+	}
+
+	/**
+	 * @param sim the simulator in which the events are executed
+	 * @param slotWidth the width of the slots of the lowest level, the range of
+	 * the wheel is 2^24 times this width
+	 */
+	public TimingWheel(Simulator sim, long slotWidth){
+		if( slotWidth <= 0 )
+			throw new IllegalArgumentException("The slot width must be positive");
+		this.sim = sim;
+		this.slotWidth = slotWidth;
+	}
+
+	/**
+	 * @return returns the number of events waiting in the wheel
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Schedules an event at its time.
+	 *
+	 * @param e the event, its time must not be in the past
+	 */
+	public void schedule(Event e){
+		if( e.isQueued() )
+			throw new IllegalStateException("The event is already queued: " + e);
+
+		// no slot boundary before the current one needs work, otherwise the
+		// slot event would have been executed already
+		long currentSlot = sim.getSimulationTime() / slotWidth;
+		if( base <= currentSlot )
+			base = currentSlot + 1;
+
+		if( !insert(e, e.time / slotWidth) ){
+			sim.queueEvent(e);
+			return;
+		}
+		size++;
+		updateSlotEvent();
+	}
+
+	/**
+	 * Removes an event from the wheel.
+	 *
+	 * @param e the event
+	 * @return returns true if the event was in the wheel
+	 */
+	public boolean cancel(Event e){
+		int slot = e.wheelSlot;
+		if( slot < 0 )
+			return false;
+		int level = slot >> SLOT_BITS;
+		int index = slot & SLOT_MASK;
+
+		Event previous = null;
+		Event entry = slots[level][index];
+		while( entry != null && entry != e ){
+			previous = entry;
+			entry = entry.queueNext;
+		}
+		if( entry == null )
+			return false;
+		if( previous == null )
+			slots[level][index] = e.queueNext;
+		else
+			previous.queueNext = e.queueNext;
+		if( slots[level][index] == null )
+			occupied[level] &= ~(1L << index);
+		e.queueNext = null;
+		e.wheelSlot = -1;
+		size--;
+		if( size == 0 )
+			sim.cancelEvent(slotEvent);
+		return true;
+	}
+
+	/**
+	 * Removes all events from the wheel.
+	 */
+	public void clear(){
+		for( int level=0; level<LEVELS; ++level ){
+			for( int index=0; index<SLOTS; ++index ){
+				Event e = slots[level][index];
+				while( e != null ){
+					Event next = e.queueNext;
+					e.queueNext = null;
+					e.wheelSlot = -1;
+					e = next;
+				}
+				slots[level][index] = null;
+			}
+			occupied[level] = 0;
+		}
+		size = 0;
+		sim.cancelEvent(slotEvent);
+	}
+
+	/**
+	 * Links the event into the slot of the given expiry relative to the base.
+	 *
+	 * @return returns false if the event is out of the range of the wheel or
+	 * it belongs to a slot which is processed already
+	 */
+	private boolean insert(Event e, long expires){
+		long delta = expires - base;
+		if( delta < 0 )
+			return false;
+		for( int level=0; level<LEVELS; ++level ){
+			int shift = level * SLOT_BITS;
+			if( delta < (1L << (shift + SLOT_BITS)) ){
+				int index = (int)((expires >> shift) & SLOT_MASK);
+				e.queueNext = slots[level][index];
+				slots[level][index] = e;
+				e.wheelSlot = (level << SLOT_BITS) | index;
+				occupied[level] |= 1L << index;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Unlinks and returns all the events of a slot.
+	 */
+	private Event takeSlot(int level, int index){
+		Event first = slots[level][index];
+		slots[level][index] = null;
+		occupied[level] &= ~(1L << index);
+		return first;
+	}
+
+	/**
+	 * Redistributes the events of a higher level slot to the lower levels.
+	 *
+	 * @return returns the index of the slot
+	 */
+	private int cascade(int level){
+		int index = (int)((base >> (level * SLOT_BITS)) & SLOT_MASK);
+		Event e = takeSlot(level, index);
+		while( e != null ){
+			Event next = e.queueNext;
+			e.queueNext = null;
+			e.wheelSlot = -1;
+			insert(e, e.time / slotWidth);
+			e = next;
+		}
+		return index;
+	}
+
+	/**
+	 * Processes the given slot, the slots between the base and this one have
+	 * nothing to do.
+	 */
+	private void advance(long slot){
+		base = slot;
+		if( (base & SLOT_MASK) == 0 ){
+			int level = 1;
+			while( level < LEVELS && cascade(level) == 0 )
+				++level;
+		}
+
+		Event e = takeSlot(0, (int)(base & SLOT_MASK));
+		while( e != null ){
+			Event next = e.queueNext;
+			e.queueNext = null;
+			e.wheelSlot = -1;
+			--size;
+			sim.queueEvent(e);
+			e = next;
+		}
+
+		base = slot + 1;
+		updateSlotEvent();
+	}
+
+	/**
+	 * @return returns the next slot to be processed, or -1 if the wheel is empty
+	 */
+	private long nextSlot(){
+		long next = -1;
+		if( occupied[0] != 0 ){
+			long rotated = Long.rotateRight(occupied[0], (int)(base & SLOT_MASK));
+			next = base + Long.numberOfTrailingZeros(rotated);
+		}
+		for( int level=1; level<LEVELS; ++level ){
+			if( occupied[level] != 0 ){
+				long boundary = (base + SLOT_MASK) & ~(long)SLOT_MASK;
+				if( next < 0 || boundary < next )
+					next = boundary;
+				break;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Makes sure that the slot event happens at the beginning of the next
+	 * slot to be processed.
+	 */
+	private void updateSlotEvent(){
+		long next = nextSlot();
+		if( next < 0 ){
+			sim.cancelEvent(slotEvent);
+			return;
+		}
+		long time = next * slotWidth;
+		if( !slotEvent.isQueued() || time < slotEvent.time ){
+			sim.cancelEvent(slotEvent);
+			slotEvent.time = time;
+			sim.queueEvent(slotEvent);
+		}
+	}
+
+	public String toString(){
+		return size + " events, next slot " + base;
+	}
+}
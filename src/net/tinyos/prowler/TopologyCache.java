@@ -0,0 +1,189 @@
+package net.tinyos.prowler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A directory of computed neighborhoods, so repeated experiments with the
+ * same seed and parameters skip the neighborhood search, see
+ * {@link RadioModel#setTopologyCache}. A topology is identified by a hash of
+ * the radio model class, its parameters, the cutoff and the positions and
+ * maximum radio strengths of the nodes; the positions follow from the node
+ * number, the area and the seed of the simulator. Every topology is stored
+ * in its own binary file: the positions of the nodes, to make sure that it
+ * belongs to the field, then the neighbors and static fadings of every node.
+ * <br>
+ * A file is written to a temporary file first and renamed when it is
+ * complete, so the cache can be shared by the replications running in
+ * parallel, see {@link ReplicationRunner}.
+ */
+public class TopologyCache {
+
+	/** The first bytes of a topology file. */
+	private static final long MAGIC = 0x50524F57544F5031L;
+
+	/** The size of the buffer of reading and writing a file. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The directory of the files. */
+	private File directory;
+
+	/**
+	 * @param directory the directory of the files, it is created if needed
+	 */
+	public TopologyCache(File directory){
+		this.directory = directory;
+	}
+
+	/**
+	 * @return returns the directory of the files
+	 */
+	public File getDirectory(){
+		return directory;
+	}
+
+	private File getFile(long hash){
+		return new File(directory, Long.toHexString(hash) + ".topology");
+	}
+
+	/**
+	 * Reads the neighborhoods of a topology.
+	 *
+	 * @param nodes the nodes in the order of the node list
+	 * @param hash the hash of the topology
+	 * @return returns the neighbors of every node, or null if the topology
+	 * is not in the cache
+	 * @throws IOException if the file cannot be read
+	 */
+	List<LinkTable.Builder> load(Node[] nodes, long hash) throws IOException{
+		File file = getFile(hash);
+		if( !file.isFile() )
+			return null;
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try{
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.flip();
+			if( !fill(channel, buffer, 20) || buffer.getLong() != MAGIC || buffer.getLong() != hash 
+					|| buffer.getInt() != nodes.length )
+				return null;
+			for( int i=0; i<nodes.length; ++i ){
+				Node node = nodes[i];
+				if( !fill(channel, buffer, 24) || buffer.getDouble() != node.x || buffer.getDouble() != node.y 
+						|| buffer.getDouble() != node.z )
+					return null;
+			}
+
+			LinkTable.Builder rows = new LinkTable.Builder(0, nodes.length);
+			int[] neighbors = new int[0];
+			double[] staticFadings = new double[0];
+			for( int i=0; i<nodes.length; ++i ){
+				if( !fill(channel, buffer, 4) )
+					return null;
+				int count = buffer.getInt();
+				if( count > neighbors.length ){
+					neighbors = new int[count];
+					staticFadings = new double[count];
+				}
+				for( int k=0; k<count; ++k ){
+					if( !fill(channel, buffer, 12) )
+						return null;
+					neighbors[k] = buffer.getInt();
+					staticFadings[k] = buffer.getDouble();
+				}
+				rows.addRow(i, neighbors, staticFadings, count);
+			}
+			List<LinkTable.Builder> parts = new ArrayList<LinkTable.Builder>();
+			parts.add(rows);
+			return parts;
+		}
+		finally{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Makes sure that the buffer holds the given number of bytes at least.
+	 *
+	 * @return returns false if the file ends before
+	 */
+	private static boolean fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException{
+		if( buffer.remaining() >= bytes )
+			return true;
+		buffer.compact();
+		while( buffer.position() < bytes ){
+			if( channel.read(buffer) < 0 ){
+				buffer.flip();
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Writes the neighborhoods of a topology.
+	 *
+	 * @param nodes the nodes in the order of the node list
+	 * @param hash the hash of the topology
+	 * @param parts the neighbors of every node in order
+	 * @throws IOException if the file cannot be written
+	 */
+	void store(Node[] nodes, long hash, List<LinkTable.Builder> parts) throws IOException{
+		directory.mkdirs();
+		File temp = File.createTempFile("topology", ".tmp", directory);
+		FileChannel channel = new FileOutputStream(temp).getChannel();
+		boolean written = false;
+		try{
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.putLong(MAGIC).putLong(hash).putInt(nodes.length);
+			for( int i=0; i<nodes.length; ++i ){
+				flush(channel, buffer, 24);
+				buffer.putDouble(nodes[i].x).putDouble(nodes[i].y).putDouble(nodes[i].z);
+			}
+			for( LinkTable.Builder part : parts ){
+				int start = 0;
+				for( int i=part.from; i<part.to; ++i ){
+					int end = part.rowEnds[i - part.from];
+					flush(channel, buffer, 4);
+					buffer.putInt(end - start);
+					for( int k=start; k<end; ++k ){
+						flush(channel, buffer, 12);
+						buffer.putInt(part.targets[k]).putDouble(part.staticFadings[k]);
+					}
+					start = end;
+				}
+			}
+			flush(channel, buffer, BUFFER_SIZE);
+			channel.close();
+			Files.move(temp.toPath(), getFile(hash).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			written = true;
+		}
+		finally{
+			if( !written ){
+				channel.close();
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes out the buffer unless it has room for the given number of bytes.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException{
+		if( buffer.remaining() >= bytes )
+			return;
+		buffer.flip();
+		while( buffer.hasRemaining() )
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
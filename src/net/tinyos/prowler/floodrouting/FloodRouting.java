@@ -33,7 +33,10 @@ import net.tinyos.prowler.*;
  * {@link RoutingApplication#age} function periodically in the registered
  * RoutingApplications. <br>
  * Be aware that after creating the last RoutingApplication the 
- * {@link FloodRouting#initialize} has to be called explicitly!!!
+ * {@link FloodRouting#initialize} has to be called explicitly!!! <br>
+ * The message is reused and changed after it is sent, so FloodRouting does
+ * not run in the optimistic mode of the {@link ParallelSimulator}, which 
+ * keeps the sent messages by reference.
  * 
  * @author Gabor Pap (gabor.pap@vanderbilt.edu)
  */
@@ -80,7 +83,7 @@ public class FloodRouting extends Application{
 		public void execute(){
 			// add next tick event
 			time += clockTickTime;
-			getNode().getSimulator().addEvent( this );
+			getNode().getSimulator().addTimerEvent( this );
 			age();            
 		}
         
@@ -146,8 +149,10 @@ public class FloodRouting extends Application{
 	 * with the overall maximum. 
 	 */
 	public void initialize(){
+		if( ParallelSimulator.isOptimistic(getNode().getSimulator()) )
+			throw new IllegalStateException("FloodRouting changes its message after sending, the optimistic mode cannot roll it back");
 		routingMessage = new FloodRoutingMsg(maxDataPerMsg);
-        getNode().getSimulator().addEvent( new FloodRouting.ClockTickEvent((int)(Simulator.random.nextDouble() * clockTickTime)) );
+        getNode().getSimulator().addTimerEvent( new FloodRouting.ClockTickEvent((int)(getNode().getRandom().nextDouble() * clockTickTime)) );
 	}
 
 	/**
@@ -199,7 +204,7 @@ public class FloodRouting extends Application{
 	 * packet, it has to call this function!
 	 */
 	public void sendMsg(){
-        long timeOfEvent = getNode().getSimulator().getSimulationTime() + (int)(Simulator.random.nextDouble()*maxProcessTime); 
+        long timeOfEvent = getNode().getSimulator().getSimulationTime() + (int)(getNode().getRandom().nextDouble()*maxProcessTime); 
         SendMsgEvent sendMsgEvent = this.new SendMsgEvent(timeOfEvent);
         getNode().getSimulator().addEvent(sendMsgEvent);
 	}